@@ -0,0 +1,65 @@
+package org.mh.jenkins.wso2.bench;
+
+import hudson.model.BuildListener;
+import hudson.util.NullStream;
+import hudson.util.StreamBuildListener;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+
+/**
+ * Helpers for the benchmarks
+ *
+ * @author mh
+ *
+ */
+final class BenchFiles {
+
+	private static final int BLOCK_SIZE = 1024 * 1024;
+
+	private BenchFiles() {
+	}
+
+	/** Temp file with random (incompressible) content of the given size */
+	static File createAar( long size ) throws IOException {
+		File aar = File.createTempFile( "bench-", ".aar" );
+		aar.deleteOnExit();
+		Random random = new Random( size );
+		byte[] block = new byte[BLOCK_SIZE];
+		OutputStream out = new FileOutputStream( aar );
+		try {
+			for ( long written = 0; written < size; written += block.length ) {
+				random.nextBytes( block );
+				out.write( block, 0, (int) Math.min( block.length, size - written ) );
+			}
+		} finally {
+			out.close();
+		}
+		return aar;
+	}
+
+	/** Build listener dropping all log lines */
+	static BuildListener quietListener() {
+		return new StreamBuildListener( new NullStream() );
+	}
+
+	/** Output stream counting and dropping all bytes */
+	static class CountingNullStream extends OutputStream {
+		long count;
+
+		@Override
+		public void write( int b ) {
+			count++;
+		}
+
+		@Override
+		public void write( byte[] b, int off, int len ) {
+			count += len;
+		}
+	}
+
+}
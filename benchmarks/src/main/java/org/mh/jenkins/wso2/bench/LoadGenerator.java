@@ -0,0 +1,117 @@
+package org.mh.jenkins.wso2.bench;
+
+import hudson.FilePath;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mh.jenkins.wso2.Wso2AarDeployClient;
+import org.mh.jenkins.wso2.Wso2ClientConfig;
+import org.mh.jenkins.wso2.Wso2RetryPolicy;
+
+
+/**
+ * Load test of the deploy client: many concurrent uploads against the {@link MockWso2Server},
+ * reports throughput and the latency distribution.
+ *
+ * <tt>java -cp target/benchmarks.jar [options] org.mh.jenkins.wso2.bench.LoadGenerator</tt>
+ * with the system properties
+ * <ul>
+ * <li><tt>load.clients</tt> concurrent uploads (default 16)</li>
+ * <li><tt>load.uploads</tt> uploads per client (default 20)</li>
+ * <li><tt>load.sizeKB</tt> AAR size (default 1024)</li>
+ * <li><tt>load.mtom</tt>, <tt>load.gzip</tt> client settings (default true, false)</li>
+ * <li><tt>load.attempts</tt> upload attempts with retries (default 1)</li>
+ * <li><tt>load.url</tt> services URL of a running server, the embedded mock is used if not set</li>
+ * <li>the <tt>mock.*</tt> options of {@link MockWso2Server} for the embedded mock</li>
+ * </ul>
+ *
+ * @author mh
+ *
+ */
+public class LoadGenerator {
+
+	public static void main( String[] args ) throws Exception {
+		int clients = Integer.getInteger( "load.clients", 16 );
+		final int uploads = Integer.getInteger( "load.uploads", 20 );
+		long size = Long.getLong( "load.sizeKB", 1024 ) * 1024;
+		boolean mtom = Boolean.parseBoolean( System.getProperty( "load.mtom", "true" ) );
+		boolean gzip = Boolean.getBoolean( "load.gzip" );
+		int attempts = Integer.getInteger( "load.attempts", 1 );
+
+		MockWso2Server mock = null;
+		String url = System.getProperty( "load.url" );
+		if ( url == null ) {
+			mock = new MockWso2Server()
+					.latency( Long.getLong( "mock.latencyMs", 0 ) )
+					.faultRate( Double.parseDouble( System.getProperty( "mock.faultRate", "0" ) ) )
+					.resetRate( Double.parseDouble( System.getProperty( "mock.resetRate", "0" ) ) )
+					.readRate( Long.getLong( "mock.readKBps", 0 ) * 1024 );
+			mock.start();
+			url = mock.getServicesUrl();
+		}
+
+		final File aar = BenchFiles.createAar( size );
+		final Wso2ClientConfig config = new Wso2ClientConfig( url, "admin", "admin", mtom, gzip )
+				.withRetry( new Wso2RetryPolicy( attempts, 100, 20 ), 0 );
+		System.out.println( "Load: "+clients+" clients x "+uploads+" uploads of "+size / 1024+" KB to "+config );
+
+		final List<Long> latencies = Collections.synchronizedList( new ArrayList<Long>() );
+		final AtomicInteger failed = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool( clients );
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		long start = System.currentTimeMillis();
+		for ( int c = 0; c < clients; c++ ) {
+			futures.add( pool.submit( new Callable<Void>() {
+				public Void call() {
+					Wso2AarDeployClient client = new Wso2AarDeployClient( config, BenchFiles.quietListener() );
+					try {
+						for ( int i = 0; i < uploads; i++ ) {
+							long t = System.nanoTime();
+							if ( ! client.uploadAAR( new FilePath( aar ), "Load.aar", "" ) ) {
+								failed.incrementAndGet();
+							}
+							latencies.add( ( System.nanoTime() - t ) / 1000000 );
+						}
+					} finally {
+						client.close();
+					}
+					return null;
+				}
+			}));
+		}
+		for ( Future<?> future : futures ) {
+			future.get();
+		}
+		long millis = Math.max( 1, System.currentTimeMillis() - start );
+		pool.shutdown();
+
+		List<Long> sorted = new ArrayList<Long>( latencies );
+		Collections.sort( sorted );
+		int total = sorted.size();
+		System.out.println( "Uploads:    "+total+" ("+failed+" failed) in "+millis+" ms" );
+		System.out.println( "Throughput: "+( total * 1000L / millis )+" uploads/s, "
+				+( total * size * 1000 / millis / 1024 / 1024 )+" MB/s" );
+		System.out.println( "Latency:    p50="+percentile( sorted, 50 )+" ms, p90="+percentile( sorted, 90 )
+				+" ms, p99="+percentile( sorted, 99 )+" ms, max="+sorted.get( total - 1 )+" ms" );
+		if ( mock != null ) {
+			System.out.println( "Server:     "+mock );
+			mock.stop();
+		}
+		aar.delete();
+		System.exit( 0 );
+	}
+
+	private static long percentile( List<Long> sorted, int p ) {
+		int index = (int) Math.ceil( p / 100.0 * sorted.size() ) - 1;
+		return sorted.get( Math.max( 0, index ) );
+	}
+
+}
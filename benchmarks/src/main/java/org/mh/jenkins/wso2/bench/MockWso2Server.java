@@ -0,0 +1,260 @@
+package org.mh.jenkins.wso2.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.xml.ws.WebServiceContext;
+import javax.xml.ws.handler.MessageContext;
+
+import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.jaxws.JaxWsServerFactoryBean;
+import org.apache.cxf.transport.common.gzip.GZIPFeature;
+import org.eclipse.jetty.server.Request;
+import org.wso2.carbon.aarservices.Exception_Exception;
+import org.wso2.carbon.aarservices.ServiceUploaderPortType;
+import org.wso2.carbon.aarservices.xsd.AARServiceData;
+
+
+/**
+ * Mock WSO2 ServiceUploader for load and integration tests of the deploy client.
+ *
+ * Runs the ServiceUploader SOAP endpoint (embedded Jetty) on a local port and simulates a real server:
+ * a response latency, reading the AAR slowly (limited read rate), ServiceUploader faults and 
+ * connection resets (at the given rates). Accepts MTOM and gzip compressed requests.
+ * Counts requests, received bytes, MTOM and gzip requests, faults and resets.
+ *
+ * Start it standalone with <tt>java -cp target/benchmarks.jar org.mh.jenkins.wso2.bench.MockWso2Server [port]</tt>
+ * and the options as system properties: <tt>-Dmock.latencyMs=200 -Dmock.faultRate=0.05 -Dmock.resetRate=0.01 -Dmock.readKBps=1024</tt>
+ *
+ * @author mh
+ *
+ */
+public class MockWso2Server implements ServiceUploaderPortType {
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	@Resource
+	private WebServiceContext context;
+
+	private long latencyMillis;
+	private double faultRate;
+	private double resetRate;
+	private long readBytesPerSec;
+	private final AtomicInteger resetFirst = new AtomicInteger();
+	private final Random random = new Random();
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong mtomRequests = new AtomicLong();
+	private final AtomicLong gzipRequests = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final AtomicLong faults = new AtomicLong();
+	private final AtomicLong resets = new AtomicLong();
+
+	private Server server;
+	private String servicesUrl;
+
+	/** Response latency added after the AAR is read */
+	public MockWso2Server latency( long millis ) {
+		this.latencyMillis = millis;
+		return this;
+	}
+
+	/** Share of the uploads answered with a ServiceUploader fault (0..1) */
+	public MockWso2Server faultRate( double rate ) {
+		this.faultRate = rate;
+		return this;
+	}
+
+	/** Share of the uploads, where the connection is reset while reading the AAR (0..1) */
+	public MockWso2Server resetRate( double rate ) {
+		this.resetRate = rate;
+		return this;
+	}
+
+	/** Reset the connection of the next n uploads, e.g. to test retries */
+	public MockWso2Server resetFirst( int n ) {
+		this.resetFirst.set( n );
+		return this;
+	}
+
+	/** Read the AAR with max. this rate (slow server or link), 0 is unlimited */
+	public MockWso2Server readRate( long bytesPerSec ) {
+		this.readBytesPerSec = bytesPerSec;
+		return this;
+	}
+
+	/** Start the endpoint on a free local port */
+	public void start() throws IOException {
+		ServerSocket socket = new ServerSocket( 0 );
+		int port = socket.getLocalPort();
+		socket.close();
+		start( port );
+	}
+
+	public void start( int port ) {
+		servicesUrl = "http://localhost:"+port+"/services/";
+		JaxWsServerFactoryBean factory = new JaxWsServerFactoryBean();
+		factory.setServiceClass( ServiceUploaderPortType.class );
+		factory.setServiceBean( this );
+		factory.setAddress( servicesUrl+"ServiceUploader.ServiceUploaderHttpsEndpoint/" );
+		// Content-Encoding: gzip requests of compressing clients
+		factory.getFeatures().add( new GZIPFeature() );
+		server = factory.create();
+	}
+
+	public void stop() {
+		if ( server != null ) {
+			server.destroy();
+		}
+	}
+
+	/** URL to configure in the deploy client */
+	public String getServicesUrl() {
+		return servicesUrl;
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/** Requests sent as MTOM (multipart/related) */
+	public long getMtomRequests() {
+		return mtomRequests.get();
+	}
+
+	/** Requests with a gzip compressed body */
+	public long getGzipRequests() {
+		return gzipRequests.get();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	public long getFaults() {
+		return faults.get();
+	}
+
+	public long getResets() {
+		return resets.get();
+	}
+
+	@Override
+	public String toString() {
+		return "requests="+requests+" (MTOM "+mtomRequests+", gzip "+gzipRequests+"), bytes received="+bytesReceived
+				+", faults="+faults+", resets="+resets;
+	}
+
+	public String uploadService( List<AARServiceData> serviceDataList ) throws Exception_Exception {
+		requests.incrementAndGet();
+		Object request = context.getMessageContext().get( MessageContext.SERVLET_REQUEST );
+		if ( request instanceof HttpServletRequest ) {
+			HttpServletRequest http = (HttpServletRequest) request;
+			if ( http.getContentType() != null && http.getContentType().startsWith( "multipart/related" ) ) {
+				mtomRequests.incrementAndGet();
+			}
+			if ( "gzip".equalsIgnoreCase( http.getHeader( "Content-Encoding" ) ) ) {
+				gzipRequests.incrementAndGet();
+			}
+		}
+		boolean reset = resetNext() || chance( resetRate );
+		try {
+			for ( AARServiceData data : serviceDataList ) {
+				read( data.getDataHandler().getValue().getInputStream(), reset );
+			}
+			if ( latencyMillis > 0 ) {
+				Thread.sleep( latencyMillis );
+			}
+		} catch ( IOException e ) {
+			throw new IllegalStateException( e );
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException( e );
+		}
+		if ( chance( faultRate ) ) {
+			faults.incrementAndGet();
+			throw new Exception_Exception( "Mock fault: AAR deployment failed" );
+		}
+		return "successful";
+	}
+
+	/** Read and count the AAR content, rate limited, reset the connection half way if requested */
+	private void read( InputStream in, boolean reset ) throws IOException, InterruptedException {
+		byte[] buffer = new byte[READ_BUFFER_SIZE];
+		long start = System.currentTimeMillis();
+		long count = 0;
+		try {
+			int read;
+			while ( ( read = in.read( buffer ) ) >= 0 ) {
+				count += read;
+				bytesReceived.addAndGet( read );
+				if ( reset && count >= READ_BUFFER_SIZE ) {
+					resetConnection();
+				}
+				if ( readBytesPerSec > 0 ) {
+					long due = start + count * 1000 / readBytesPerSec;
+					long wait = due - System.currentTimeMillis();
+					if ( wait > 0 ) {
+						Thread.sleep( wait );
+					}
+				}
+			}
+		} finally {
+			in.close();
+		}
+		if ( reset ) {
+			resetConnection(); // small AARs are read completely
+		}
+	}
+
+	/** Close the client connection without a response */
+	private void resetConnection() throws IOException {
+		resets.incrementAndGet();
+		Object request = context.getMessageContext().get( MessageContext.SERVLET_REQUEST );
+		if ( request instanceof Request ) {
+			( (Request) request ).getConnection().getEndPoint().close();
+		}
+		throw new IOException( "Mock connection reset" );
+	}
+
+	/** Count down the uploads to reset, see resetFirst() */
+	private boolean resetNext() {
+		int n;
+		do {
+			n = resetFirst.get();
+			if ( n <= 0 ) {
+				return false;
+			}
+		} while ( ! resetFirst.compareAndSet( n, n - 1 ) );
+		return true;
+	}
+
+	private boolean chance( double rate ) {
+		synchronized ( random ) {
+			return rate > 0 && random.nextDouble() < rate;
+		}
+	}
+
+
+	/** Run the mock server standalone */
+	public static void main( String[] args ) throws Exception {
+		MockWso2Server mock = new MockWso2Server()
+				.latency( Long.getLong( "mock.latencyMs", 0 ) )
+				.faultRate( Double.parseDouble( System.getProperty( "mock.faultRate", "0" ) ) )
+				.resetRate( Double.parseDouble( System.getProperty( "mock.resetRate", "0" ) ) )
+				.readRate( Long.getLong( "mock.readKBps", 0 ) * 1024 );
+		mock.start( args.length > 0 ? Integer.parseInt( args[0] ) : 9763 );
+		System.out.println( "Mock WSO2 ServiceUploader at "+mock.getServicesUrl()+", press Enter to stop" );
+		System.in.read();
+		System.out.println( mock );
+		mock.stop();
+	}
+
+}
@@ -0,0 +1,91 @@
+package org.mh.jenkins.wso2.bench;
+
+import hudson.FilePath;
+import hudson.model.BuildListener;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Marshaller;
+
+import org.mh.jenkins.wso2.FilePathDataSource;
+import org.mh.jenkins.wso2.Wso2AarDeployClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.aarservices.UploadService;
+import org.wso2.carbon.aarservices.xsd.AARServiceData;
+
+
+/**
+ * Request construction (creRequestData incl. readFully) and JAXB marshalling of the
+ * UploadService request for different AAR sizes. Run with "-prof gc" for allocation rates.
+ *
+ * @author mh
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class RequestBuildBenchmark {
+
+	/** 100 KB to 500 MB */
+	@Param({ "102400", "1048576", "10485760", "104857600", "524288000" })
+	public long aarSize;
+
+	private File aar;
+	private FilePathDataSource dataSource;
+	private BuildListener listener;
+	private JAXBContext jaxb;
+
+	@Setup
+	public void setUp() throws Exception {
+		aar = BenchFiles.createAar( aarSize );
+		dataSource = new FilePathDataSource( new FilePath( aar ), "Bench.aar" );
+		listener = BenchFiles.quietListener();
+		jaxb = JAXBContext.newInstance( UploadService.class );
+	}
+
+	@TearDown
+	public void tearDown() {
+		aar.delete();
+	}
+
+	/** inline mode: reads the whole AAR into memory */
+	@Benchmark
+	public List<AARServiceData> creRequestDataInline() throws Exception {
+		return Wso2AarDeployClient.creRequestData( dataSource, "Bench.aar", "", false, listener );
+	}
+
+	/** MTOM mode: only wraps the data source */
+	@Benchmark
+	public List<AARServiceData> creRequestDataMtom() throws Exception {
+		return Wso2AarDeployClient.creRequestData( dataSource, "Bench.aar", "", true, listener );
+	}
+
+	/** inline request incl. base64 marshalling of the SOAP body */
+	@Benchmark
+	public long marshalInline() throws Exception {
+		UploadService request = new UploadService();
+		request.getServiceDataList().addAll( creRequestDataInline() );
+		Marshaller marshaller = jaxb.createMarshaller();
+		BenchFiles.CountingNullStream out = new BenchFiles.CountingNullStream();
+		marshaller.marshal( request, out );
+		return out.count;
+	}
+
+}
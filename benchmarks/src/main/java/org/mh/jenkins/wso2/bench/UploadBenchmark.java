@@ -0,0 +1,73 @@
+package org.mh.jenkins.wso2.bench;
+
+import hudson.FilePath;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.mh.jenkins.wso2.Wso2AarDeployClient;
+import org.mh.jenkins.wso2.Wso2ClientConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * End-to-end upload (request building, marshalling, HTTP) against the in-process mock WSO2 server.
+ *
+ * @author mh
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class UploadBenchmark {
+
+	/** 100 KB to 500 MB */
+	@Param({ "102400", "1048576", "10485760", "104857600", "524288000" })
+	public long aarSize;
+
+	@Param({ "false", "true" })
+	public boolean mtom;
+
+	private File aar;
+	private MockWso2Server mock;
+	private Wso2AarDeployClient client;
+
+	@Setup
+	public void setUp() throws Exception {
+		aar = BenchFiles.createAar( aarSize );
+		mock = new MockWso2Server();
+		mock.start();
+		client = new Wso2AarDeployClient( new Wso2ClientConfig( mock.getServicesUrl(), "admin", "admin", mtom, false ), 
+				BenchFiles.quietListener() );
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.close();
+		mock.stop();
+		aar.delete();
+	}
+
+	/** a failed upload would be measured as a fast iteration, so it fails the benchmark */
+	@Benchmark
+	public void uploadAAR() {
+		if ( ! client.uploadAAR( new FilePath( aar ), "Bench.aar", "" ) ) {
+			throw new IllegalStateException( "Upload to "+mock.getServicesUrl()+" failed" );
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+package org.mh.jenkins.wso2.bench;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import hudson.FilePath;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mh.jenkins.wso2.Wso2AarDeployClient;
+import org.mh.jenkins.wso2.Wso2ClientConfig;
+import org.mh.jenkins.wso2.Wso2RetryPolicy;
+
+
+/**
+ * Uploads of the deploy client to the mock WSO2 server: MTOM, gzip, faults and retries.
+ *
+ * @author mh
+ *
+ */
+public class MockWso2ServerTest {
+
+	private static final long AAR_SIZE = 256 * 1024;
+
+	private MockWso2Server mock;
+	private File aar;
+
+	@Before
+	public void setUp() throws Exception {
+		aar = BenchFiles.createAar( AAR_SIZE );
+		mock = new MockWso2Server();
+	}
+
+	@After
+	public void tearDown() {
+		mock.stop();
+		aar.delete();
+	}
+
+	@Test
+	public void mtomUpload() throws Exception {
+		mock.start();
+		assertTrue( upload( new Wso2ClientConfig( mock.getServicesUrl(), "admin", "admin", true, false ) ) );
+		assertEquals( 1, mock.getRequests() );
+		assertEquals( 1, mock.getMtomRequests() );
+		assertEquals( AAR_SIZE, mock.getBytesReceived() );
+	}
+
+	@Test
+	public void gzipUpload() throws Exception {
+		mock.start();
+		assertTrue( upload( new Wso2ClientConfig( mock.getServicesUrl(), "admin", "admin", false, true ) ) );
+		assertEquals( 1, mock.getRequests() );
+		assertEquals( 1, mock.getGzipRequests() );
+		assertEquals( 0, mock.getMtomRequests() );
+		assertEquals( AAR_SIZE, mock.getBytesReceived() );
+	}
+
+	@Test
+	public void gzipMtomUpload() throws Exception {
+		mock.start();
+		assertTrue( upload( new Wso2ClientConfig( mock.getServicesUrl(), "admin", "admin", true, true ) ) );
+		assertEquals( 1, mock.getGzipRequests() );
+		assertEquals( 1, mock.getMtomRequests() );
+		assertEquals( AAR_SIZE, mock.getBytesReceived() );
+	}
+
+	@Test
+	public void faultIsNotRetried() throws Exception {
+		mock.faultRate( 1 ).start();
+		assertFalse( upload( new Wso2ClientConfig( mock.getServicesUrl(), "admin", "admin", true, false )
+				.withRetry( new Wso2RetryPolicy( 3, 10, 0 ), 0 ) ) );
+		assertEquals( 1, mock.getRequests() );
+		assertEquals( 1, mock.getFaults() );
+	}
+
+	@Test
+	public void resetIsRetried() throws Exception {
+		mock.resetFirst( 1 ).start();
+		assertTrue( upload( new Wso2ClientConfig( mock.getServicesUrl(), "admin", "admin", true, false )
+				.withRetry( new Wso2RetryPolicy( 3, 10, 0 ), 0 ) ) );
+		assertEquals( 2, mock.getRequests() );
+		assertEquals( 1, mock.getResets() );
+	}
+
+	@Test
+	public void resetWithoutRetryFails() throws Exception {
+		mock.resetFirst( 1 ).start();
+		assertFalse( upload( new Wso2ClientConfig( mock.getServicesUrl(), "admin", "admin", true, false ) ) );
+		assertEquals( 1, mock.getRequests() );
+		assertEquals( 1, mock.getResets() );
+	}
+
+	private boolean upload( Wso2ClientConfig config ) {
+		Wso2AarDeployClient client = new Wso2AarDeployClient( config, BenchFiles.quietListener() );
+		try {
+			return client.uploadAAR( new FilePath( aar ), "Test.aar", "" );
+		} finally {
+			client.close();
+		}
+	}
+
+}
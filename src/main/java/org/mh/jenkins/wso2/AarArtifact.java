@@ -0,0 +1,37 @@
+package org.mh.jenkins.wso2;
+
+import hudson.FilePath;
+
+import java.io.Serializable;
+
+
+/**
+ * An AAR file to deploy with its target name on the WSO2 server.
+ *
+ * Serializable, the FilePath resolves to a local file on the node owning it.
+ *
+ * @author mh
+ *
+ */
+public class AarArtifact implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public final FilePath file;
+	public final String targetFileName;
+	public final long size;
+	public final String digest;
+
+	public AarArtifact( FilePath file, String targetFileName, long size, String digest ) {
+		this.file = file;
+		this.targetFileName = targetFileName;
+		this.size = size;
+		this.digest = digest;
+	}
+
+	@Override
+	public String toString() {
+		return targetFileName;
+	}
+
+}
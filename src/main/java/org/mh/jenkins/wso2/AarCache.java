@@ -0,0 +1,147 @@
+package org.mh.jenkins.wso2;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+
+
+/**
+ * Content addressed AAR cache of a node: <tt>wso2-aar-cache/&lt;sha256&gt;.aar</tt> in the node root.
+ *
+ * Deployed AARs are put into the cache, later deployments (e.g. promotions to the next stage)
+ * can use an AAR source <tt>sha256:&lt;hex&gt;</tt> and upload straight from the cache, without
+ * workspace copies. The cache is limited in size, the least recently used AARs are evicted.
+ *
+ * @author mh
+ *
+ */
+public final class AarCache {
+
+	/** AAR source prefix for cache lookups */
+	public static final String PREFIX = "sha256:";
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	private AarCache() {
+	}
+
+
+	/** Cache directory of the node */
+	public static FilePath dir( FilePath nodeRoot ) {
+		return nodeRoot.child( "wso2-aar-cache" );
+	}
+
+
+	/** The cached AAR, null if it's not in the cache */
+	public static FilePath lookup( FilePath cacheDir, String hex ) throws IOException, InterruptedException {
+		if ( ! hex.matches( "[0-9a-f]{64}" ) ) {
+			return null;
+		}
+		FilePath cached = cacheDir.child( hex+".aar" );
+		if ( ! cached.exists() ) {
+			return null;
+		}
+		cached.touch( System.currentTimeMillis() ); // LRU
+		return cached;
+	}
+
+
+	/** Copy the AAR into the cache of its node, returns the SHA-256 (hex) of the file, null if it couldn't be cached */
+	public static class Put implements FileCallable<String> {
+		private static final long serialVersionUID = 1L;
+
+		private final String cacheDir;
+		private final long maxBytes;
+
+		/** @param cacheDir path on the node of the AAR file, see {@link AarCache#dir(FilePath)} */
+		public Put( FilePath cacheDir, long maxBytes ) {
+			this.cacheDir = cacheDir.getRemote();
+			this.maxBytes = maxBytes;
+		}
+
+		public String invoke( File f, VirtualChannel channel ) throws IOException, InterruptedException {
+			File dir = new File( cacheDir );
+			dir.mkdirs();
+			File tmp = File.createTempFile( "put", ".tmp", dir );
+			String hex;
+			try {
+				hex = copy( f, tmp );
+				File cached = new File( dir, hex+".aar" );
+				synchronized ( AarCache.class ) {
+					if ( ! cached.exists() && ! tmp.renameTo( cached ) ) {
+						return null;
+					}
+					cached.setLastModified( System.currentTimeMillis() );
+					evict( dir, maxBytes, cached );
+				}
+			} finally {
+				tmp.delete();
+			}
+			return hex;
+		}
+	}
+
+
+	/** Copy and hash in one pass */
+	private static String copy( File from, File to ) throws IOException {
+		MessageDigest md = AarDigest.newDigest();
+		InputStream in = new FileInputStream( from );
+		try {
+			OutputStream out = new FileOutputStream( to );
+			try {
+				byte[] buffer = new byte[READ_BUFFER_SIZE];
+				int read;
+				while ( ( read = in.read( buffer ) ) >= 0 ) {
+					md.update( buffer, 0, read );
+					out.write( buffer, 0, read );
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		return AarDigest.toHex( md.digest() );
+	}
+
+
+	/** Delete the least recently used AARs until the cache fits into the size limit */
+	private static void evict( File dir, long maxBytes, File keep ) {
+		File[] files = dir.listFiles();
+		if ( files == null ) {
+			return;
+		}
+		Arrays.sort( files, new Comparator<File>() {
+			public int compare( File a, File b ) {
+				long diff = a.lastModified() - b.lastModified();
+				return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+			}
+		});
+		long total = 0;
+		for ( File f : files ) {
+			if ( f.getName().endsWith( ".aar" ) ) {
+				total += f.length();
+			}
+		}
+		for ( File f : files ) {
+			if ( total <= maxBytes ) {
+				break;
+			}
+			if ( f.getName().endsWith( ".aar" ) && ! f.equals( keep ) ) {
+				total -= f.length();
+				f.delete();
+			}
+		}
+	}
+
+}
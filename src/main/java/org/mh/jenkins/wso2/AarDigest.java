@@ -0,0 +1,67 @@
+package org.mh.jenkins.wso2;
+
+import hudson.FilePath.FileCallable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * Computes the SHA-256 digest (hex) of an AAR file where the file is,
+ * so only the digest is sent back to the master.
+ *
+ * @author mh
+ *
+ */
+public class AarDigest implements FileCallable<String> {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	public String invoke( File f, VirtualChannel channel ) throws IOException, InterruptedException {
+		InputStream in = new FileInputStream( f );
+		try {
+			return sha256( in );
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/** Streaming SHA-256 of the stream content as lower case hex string */
+	public static String sha256( InputStream in ) throws IOException {
+		MessageDigest md = newDigest();
+		byte[] buffer = new byte[READ_BUFFER_SIZE];
+		int read;
+		while ( ( read = in.read( buffer ) ) >= 0 ) {
+			md.update( buffer, 0, read );
+		}
+		return toHex( md.digest() );
+	}
+
+
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance( "SHA-256" );
+		} catch ( NoSuchAlgorithmException e ) {
+			throw new IllegalStateException( "SHA-256 not supported by JVM", e );
+		}
+	}
+
+
+	static String toHex( byte[] bytes ) {
+		StringBuilder sb = new StringBuilder( bytes.length * 2 );
+		for ( byte b : bytes ) {
+			sb.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) );
+			sb.append( Character.forDigit( b & 0xF, 16 ) );
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,139 @@
+package org.mh.jenkins.wso2;
+
+import hudson.FilePath.FileCallable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+
+/**
+ * Content fingerprint of an AAR, which only changes if service classes, descriptors or resources change.
+ *
+ * The AAR is read as zip stream, entry timestamps and the entry order are ignored, nested jars 
+ * (e.g. lib/*.jar) are fingerprinted by their content the same way. Volatile entries like the 
+ * MANIFEST.MF or Maven build properties are skipped, they are given as comma separated 
+ * patterns (<tt>*</tt> within a path segment, <tt>**</tt> across segments).
+ *
+ * Runs where the file is, only the fingerprint is sent back.
+ *
+ * @author mh
+ *
+ */
+public class AarFingerprint implements FileCallable<String> {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Used if no volatile entries are configured */
+	public static final String DEFAULT_VOLATILE_ENTRIES = "META-INF/MANIFEST.MF, META-INF/maven/**";
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	private final String volatileEntries;
+
+	/** @param volatileEntries comma separated patterns of entries to ignore */
+	public AarFingerprint( String volatileEntries ) {
+		this.volatileEntries = volatileEntries;
+	}
+
+	public String invoke( File f, VirtualChannel channel ) throws IOException, InterruptedException {
+		List<Pattern> ignored = patterns( volatileEntries );
+		InputStream in = new FileInputStream( f );
+		try {
+			return "fp:"+AarDigest.toHex( fingerprint( in, ignored ) );
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/** SHA-256 over the sorted entry names and content digests */
+	private static byte[] fingerprint( InputStream in, List<Pattern> ignored ) throws IOException {
+		Map<String, String> entries = new TreeMap<String, String>();
+		ZipInputStream zip = new ZipInputStream( in );
+		ZipEntry entry;
+		while ( ( entry = zip.getNextEntry() ) != null ) {
+			String name = entry.getName();
+			if ( entry.isDirectory() || isIgnored( name, ignored ) ) {
+				continue;
+			}
+			InputStream content = new NonClosingInputStream( zip );
+			if ( name.endsWith( ".jar" ) ) {
+				entries.put( name, "jar:"+AarDigest.toHex( fingerprint( content, ignored ) ) );
+			} else {
+				entries.put( name, AarDigest.sha256( content ) );
+			}
+		}
+		MessageDigest md = AarDigest.newDigest();
+		for ( Map.Entry<String, String> e : entries.entrySet() ) {
+			md.update( ( e.getKey()+"\u0000"+e.getValue()+"\n" ).getBytes( "UTF-8" ) );
+		}
+		return md.digest();
+	}
+
+
+	private static boolean isIgnored( String name, List<Pattern> ignored ) {
+		for ( Pattern p : ignored ) {
+			if ( p.matcher( name ).matches() ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/** Convert the comma separated glob patterns to regular expressions */
+	static List<Pattern> patterns( String globs ) {
+		List<Pattern> result = new ArrayList<Pattern>();
+		if ( globs == null || globs.trim().length() == 0 ) {
+			globs = DEFAULT_VOLATILE_ENTRIES;
+		}
+		for ( String glob : globs.split( "," ) ) {
+			glob = glob.trim();
+			if ( glob.length() == 0 ) {
+				continue;
+			}
+			StringBuilder regex = new StringBuilder();
+			for ( int i = 0; i < glob.length(); i++ ) {
+				char c = glob.charAt( i );
+				if ( c == '*' && i + 1 < glob.length() && glob.charAt( i + 1 ) == '*' ) {
+					regex.append( ".*" );
+					i++;
+				} else if ( c == '*' ) {
+					regex.append( "[^/]*" );
+				} else if ( c == '?' ) {
+					regex.append( "[^/]" );
+				} else {
+					regex.append( Pattern.quote( String.valueOf( c ) ) );
+				}
+			}
+			// patterns also match entries of nested jars
+			result.add( Pattern.compile( regex.toString() ) );
+		}
+		return result;
+	}
+
+
+	/** The nested reads must not close the outer zip stream */
+	static class NonClosingInputStream extends FilterInputStream {
+		NonClosingInputStream( InputStream in ) {
+			super( in );
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+package org.mh.jenkins.wso2;
+
+import hudson.FilePath.FileCallable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+
+/**
+ * Checks an AAR before it is uploaded, so a broken archive fails the build before any network I/O.
+ *
+ * In one streaming pass over the archive: the file size is within the limit, the zip structure 
+ * and entry checksums are OK, META-INF/services.xml exists and parses, and each declared
+ * ServiceClass is in the archive (directly or in a jar in lib/).
+ *
+ * Runs where the file is, only the list of problems is sent back.
+ *
+ * @author mh
+ *
+ */
+public class AarValidator implements FileCallable<List<String>> {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String SERVICES_XML = "META-INF/services.xml";
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	private final long maxBytes;
+
+	/** @param maxBytes max. AAR file size, 0 is unlimited */
+	public AarValidator( long maxBytes ) {
+		this.maxBytes = maxBytes;
+	}
+
+	/** @return problems found, empty if the AAR is OK */
+	public List<String> invoke( File f, VirtualChannel channel ) throws IOException, InterruptedException {
+		List<String> problems = new ArrayList<String>();
+		if ( maxBytes > 0 && f.length() > maxBytes ) {
+			problems.add( "AAR size "+f.length()+" bytes exceeds the limit of "+maxBytes+" bytes" );
+			return problems;
+		}
+
+		Set<String> classes = new HashSet<String>();
+		List<String> serviceClasses = null;
+		InputStream in = new BufferedInputStream( new FileInputStream( f ), READ_BUFFER_SIZE );
+		try {
+			ZipInputStream zip = new ZipInputStream( in );
+			ZipEntry entry;
+			int entries = 0;
+			byte[] buffer = new byte[READ_BUFFER_SIZE];
+			while ( ( entry = zip.getNextEntry() ) != null ) {
+				entries++;
+				String name = entry.getName();
+				if ( SERVICES_XML.equals( name ) ) {
+					serviceClasses = serviceClasses( new AarFingerprint.NonClosingInputStream( zip ), problems );
+				} else if ( name.endsWith( ".class" ) ) {
+					classes.add( name );
+				} else if ( name.startsWith( "lib/" ) && name.endsWith( ".jar" ) ) {
+					jarClasses( new AarFingerprint.NonClosingInputStream( zip ), classes );
+				}
+				// read to the end of the entry, so the checksum is verified
+				while ( zip.read( buffer ) >= 0 ) {
+				}
+			}
+			if ( entries == 0 ) {
+				problems.add( "AAR is not a zip archive or empty" );
+				return problems;
+			}
+		} catch ( IOException e ) {
+			problems.add( "AAR is not a valid zip archive: "+e.getMessage() );
+			return problems;
+		} finally {
+			in.close();
+		}
+
+		if ( serviceClasses == null ) {
+			problems.add( SERVICES_XML+" is missing" );
+		} else {
+			for ( String serviceClass : serviceClasses ) {
+				if ( ! classes.contains( serviceClass.replace( '.', '/' )+".class" ) ) {
+					problems.add( "ServiceClass "+serviceClass+" is not in the AAR" );
+				}
+			}
+		}
+		return problems;
+	}
+
+
+	/** Parse the services.xml and get the ServiceClass parameters */
+	private static List<String> serviceClasses( InputStream in, List<String> problems ) {
+		final List<String> result = new ArrayList<String>();
+		try {
+			parser().parse( in, new DefaultHandler() {
+				private StringBuilder text;
+
+				@Override
+				public void startElement( String uri, String localName, String qName, Attributes attributes ) {
+					if ( "parameter".equals( qName ) && "ServiceClass".equals( attributes.getValue( "name" ) ) ) {
+						text = new StringBuilder();
+					}
+				}
+
+				@Override
+				public void characters( char[] ch, int start, int length ) {
+					if ( text != null ) {
+						text.append( ch, start, length );
+					}
+				}
+
+				@Override
+				public void endElement( String uri, String localName, String qName ) {
+					if ( text != null ) {
+						result.add( text.toString().trim() );
+						text = null;
+					}
+				}
+			});
+		} catch ( SAXException e ) {
+			problems.add( SERVICES_XML+" does not parse: "+e.getMessage() );
+		} catch ( Exception e ) {
+			problems.add( SERVICES_XML+" could not be read: "+e );
+		}
+		return result;
+	}
+
+
+	/** Names of the services declared in the services.xml, empty if there is none or it has no names */
+	public static class ServiceNames implements FileCallable<List<String>> {
+		private static final long serialVersionUID = 1L;
+
+		public List<String> invoke( File f, VirtualChannel channel ) throws IOException, InterruptedException {
+			final List<String> names = new ArrayList<String>();
+			ZipFile zip = new ZipFile( f );
+			try {
+				ZipEntry entry = zip.getEntry( SERVICES_XML );
+				if ( entry == null ) {
+					return names;
+				}
+				InputStream in = zip.getInputStream( entry );
+				try {
+					parser().parse( in, new DefaultHandler() {
+						@Override
+						public void startElement( String uri, String localName, String qName, Attributes attributes ) {
+							if ( "service".equals( qName ) && attributes.getValue( "name" ) != null ) {
+								names.add( attributes.getValue( "name" ).trim() );
+							}
+						}
+					});
+				} finally {
+					in.close();
+				}
+			} catch ( SAXException e ) {
+				names.clear(); // not a valid services.xml, the validation reports it
+			} catch ( ParserConfigurationException e ) {
+				throw new IOException( "No XML parser: "+e.getMessage() );
+			} finally {
+				zip.close();
+			}
+			return names;
+		}
+	}
+
+
+	/** Parser of the services.xml, the AAR is workspace content: no DTDs, no external entities */
+	private static SAXParser parser() throws ParserConfigurationException, SAXException {
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setFeature( "http://apache.org/xml/features/disallow-doctype-decl", true );
+		factory.setFeature( "http://xml.org/sax/features/external-general-entities", false );
+		factory.setFeature( "http://xml.org/sax/features/external-parameter-entities", false );
+		factory.setFeature( "http://apache.org/xml/features/nonvalidating/load-external-dtd", false );
+		factory.setXIncludeAware( false );
+		return factory.newSAXParser();
+	}
+
+
+	/** Add the class entries of a nested jar */
+	private static void jarClasses( InputStream in, Set<String> classes ) throws IOException {
+		ZipInputStream jar = new ZipInputStream( in );
+		ZipEntry entry;
+		while ( ( entry = jar.getNextEntry() ) != null ) {
+			if ( entry.getName().endsWith( ".class" ) ) {
+				classes.add( entry.getName() );
+			}
+		}
+	}
+
+}
@@ -0,0 +1,130 @@
+package org.mh.jenkins.wso2;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.interceptor.MessageSenderInterceptor;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+import org.apache.cxf.transport.common.gzip.GZIPOutInterceptor;
+
+
+/**
+ * Counts the request bytes written to the output stream of the message.
+ *
+ * The WIRE instance sits directly on the connection stream (below the gzip compression),
+ * the RAW instance on top of the gzip stream.
+ *
+ * @author mh
+ *
+ */
+public class ByteCountingInterceptor extends AbstractPhaseInterceptor<Message> {
+
+	private final boolean wire;
+
+	private ByteCountingInterceptor( boolean wire ) {
+		super( ByteCountingInterceptor.class.getName() + ( wire ? ".wire" : ".raw" ), Phase.PREPARE_SEND );
+		this.wire = wire;
+		addAfter( MessageSenderInterceptor.class.getName() );
+		if ( wire ) {
+			addBefore( GZIPOutInterceptor.class.getName() );
+		} else {
+			addAfter( GZIPOutInterceptor.class.getName() );
+		}
+	}
+
+	/** Counter for the bytes on the wire */
+	public static ByteCountingInterceptor wireCounter() {
+		return new ByteCountingInterceptor( true );
+	}
+
+	/** Counter for the uncompressed bytes */
+	public static ByteCountingInterceptor rawCounter() {
+		return new ByteCountingInterceptor( false );
+	}
+
+	public void handleMessage( Message message ) throws Fault {
+		Object stats = message.getContextualProperty( TransferStats.KEY );
+		OutputStream os = message.getContent( OutputStream.class );
+		if ( stats instanceof TransferStats && os != null ) {
+			TransferStats transfer = (TransferStats) stats;
+			message.setContent( OutputStream.class, wire ? new TimingOutputStream( os, transfer ) : new CountingOutputStream( os, transfer.rawBytes ) );
+		}
+	}
+
+
+	/** Output stream counting the bytes passed through */
+	static class CountingOutputStream extends FilterOutputStream {
+		private final AtomicLong count;
+
+		CountingOutputStream( OutputStream out, AtomicLong count ) {
+			super( out );
+			this.count = count;
+		}
+
+		@Override
+		public void write( int b ) throws IOException {
+			out.write( b );
+			count.incrementAndGet();
+		}
+
+		@Override
+		public void write( byte[] b, int off, int len ) throws IOException {
+			out.write( b, off, len );
+			count.addAndGet( len );
+		}
+	}
+
+
+	/** 
+	 * Counting stream on the connection, which also times writing the request and 
+	 * the close (sending the rest of the request and reading the response status).
+	 * Reports the upload progress.
+	 */
+	static class TimingOutputStream extends CountingOutputStream {
+		private final TransferStats stats;
+		private long firstWrite;
+
+		TimingOutputStream( OutputStream out, TransferStats stats ) {
+			super( out, stats.wireBytes );
+			this.stats = stats;
+		}
+
+		@Override
+		public void write( int b ) throws IOException {
+			started();
+			super.write( b );
+			stats.progress();
+		}
+
+		@Override
+		public void write( byte[] b, int off, int len ) throws IOException {
+			started();
+			super.write( b, off, len );
+			stats.progress();
+		}
+
+		@Override
+		public void close() throws IOException {
+			long closing = System.currentTimeMillis();
+			started();
+			stats.writeMillis.addAndGet( closing - firstWrite );
+			try {
+				super.close();
+			} finally {
+				stats.responseMillis.addAndGet( System.currentTimeMillis() - closing );
+			}
+		}
+
+		private void started() {
+			if ( firstWrite == 0 ) {
+				firstWrite = System.currentTimeMillis();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+package org.mh.jenkins.wso2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+
+
+/**
+ * Data handler of an MTOM attachment backed by a local AAR file.
+ *
+ * writeTo() reads the file in large chunks into one reused buffer per upload thread,
+ * instead of copying it through the content stream in small pieces (no memory mapping,
+ * see {@link FilePathDataSource}).
+ * getContent() returns the data source, so the attachment is written with writeTo()
+ * and not by copying the content stream.
+ *
+ * @author mh
+ *
+ */
+public class FileDataHandler extends DataHandler {
+
+	/** Size of one write to the request stream */
+	private static final int CHUNK_SIZE = 256 * 1024;
+
+	private static final ThreadLocal<byte[]> chunks = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[CHUNK_SIZE];
+		}
+	};
+
+	private final File file;
+
+	public FileDataHandler( DataSource source, File file ) {
+		super( source );
+		this.file = file;
+	}
+
+	@Override
+	public Object getContent() {
+		return getDataSource();
+	}
+
+	@Override
+	public void writeTo( OutputStream os ) throws IOException {
+		InputStream in = new FileInputStream( file );
+		try {
+			byte[] chunk = chunks.get();
+			int n;
+			while ( ( n = in.read( chunk ) ) >= 0 ) {
+				os.write( chunk, 0, n );
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+}
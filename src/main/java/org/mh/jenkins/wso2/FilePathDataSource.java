@@ -0,0 +1,60 @@
+package org.mh.jenkins.wso2;
+
+import hudson.FilePath;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.activation.DataSource;
+
+
+/**
+ * Read only activation data source backed by a (local or remote) AAR file.
+ *
+ * Every call to getInputStream() opens a new stream on the file, so the
+ * content is streamed into the MTOM attachment instead of being held in memory.
+ * Files are not memory mapped: a mapping stays until GC and locks workspace files on Windows.
+ *
+ * @author mh
+ *
+ */
+public class FilePathDataSource implements DataSource {
+
+	private final FilePath file;
+	private final String name;
+
+	public FilePathDataSource( FilePath file, String name ) {
+		this.file = file;
+		this.name = name;
+	}
+
+	public InputStream getInputStream() throws IOException {
+		try {
+			return file.read();
+		} catch ( IOException e ) {
+			throw e;
+		} catch ( Exception e ) { // newer cores declare InterruptedException
+			throw new IOException( "Reading "+file.getRemote()+" failed: "+e.getMessage() );
+		}
+	}
+
+	/** The file, if it's on this node, null for remote files */
+	public File localFile() {
+		return file.isRemote() ? null : new File( file.getRemote() );
+	}
+
+	public OutputStream getOutputStream() throws IOException {
+		throw new IOException( "AAR data source is read only" );
+	}
+
+	public String getContentType() {
+		return "application/octet-stream";
+	}
+
+	public String getName() {
+		return name;
+	}
+
+}
@@ -0,0 +1,87 @@
+package org.mh.jenkins.wso2;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.interceptor.MessageSenderInterceptor;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+
+
+/**
+ * Limits the upload bandwidth: the connection stream of the request is throttled by the
+ * JVM wide {@link TokenBucket#GLOBAL} and the token bucket in the request context (per server).
+ *
+ * Sits directly on the connection stream, so the limit applies to the bytes on the wire.
+ *
+ * @author mh
+ *
+ */
+public class ThrottlingInterceptor extends AbstractPhaseInterceptor<Message> {
+
+	/** Request context key of the token bucket of the server */
+	public static final String KEY = ThrottlingInterceptor.class.getName();
+
+	/** Max. bytes written with one reservation, keeps the stream smooth */
+	private static final int CHUNK_SIZE = 16 * 1024;
+
+	public ThrottlingInterceptor() {
+		super( Phase.PREPARE_SEND );
+		addAfter( MessageSenderInterceptor.class.getName() );
+		addBefore( ByteCountingInterceptor.class.getName() + ".wire" );
+	}
+
+	public void handleMessage( Message message ) throws Fault {
+		Object bucket = message.getContextualProperty( KEY );
+		OutputStream os = message.getContent( OutputStream.class );
+		if ( os != null && ( bucket instanceof TokenBucket || ! TokenBucket.GLOBAL.isUnlimited() ) ) {
+			message.setContent( OutputStream.class, new ThrottledOutputStream( os, 
+					bucket instanceof TokenBucket ? (TokenBucket) bucket : null ) );
+		}
+	}
+
+
+	/** Output stream waiting for the global and the server token bucket before each write */
+	static class ThrottledOutputStream extends FilterOutputStream {
+		private final TokenBucket bucket;
+
+		ThrottledOutputStream( OutputStream out, TokenBucket bucket ) {
+			super( out );
+			this.bucket = bucket;
+		}
+
+		@Override
+		public void write( int b ) throws IOException {
+			throttle( 1 );
+			out.write( b );
+		}
+
+		@Override
+		public void write( byte[] b, int off, int len ) throws IOException {
+			while ( len > 0 ) {
+				int chunk = Math.min( len, CHUNK_SIZE );
+				throttle( chunk );
+				out.write( b, off, chunk );
+				off += chunk;
+				len -= chunk;
+			}
+		}
+
+		private void throttle( int bytes ) throws IOException {
+			try {
+				if ( bucket != null ) {
+					bucket.acquire( bytes );
+				}
+				TokenBucket.GLOBAL.acquire( bytes );
+			} catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException( "Upload interrupted" );
+			}
+		}
+	}
+
+}
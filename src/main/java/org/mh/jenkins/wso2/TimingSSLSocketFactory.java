@@ -0,0 +1,107 @@
+package org.mh.jenkins.wso2;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+
+/**
+ * JVM wide TLS socket factory of the SOAP clients.
+ *
+ * All clients share one SSL context and so its session cache: a new connection to a
+ * WSO2 host, which was connected before, resumes the TLS session (abbreviated handshake).
+ * The handshake is left to the HTTPS connection, a listener adds its time (from socket creation 
+ * until the handshake completed) to the {@link TransferStats} of the upload creating the socket.
+ *
+ * @author mh
+ *
+ */
+public class TimingSSLSocketFactory extends SSLSocketFactory {
+
+	/** Transfer stats of the upload running on this thread */
+	static final ThreadLocal<TransferStats> CURRENT = new ThreadLocal<TransferStats>();
+
+	private static TimingSSLSocketFactory shared;
+
+	private final SSLSocketFactory delegate;
+
+	private TimingSSLSocketFactory( SSLSocketFactory delegate ) {
+		this.delegate = delegate;
+	}
+
+	/** The shared factory, trusting any server certificate (like the SOAP clients without session reuse) */
+	public static synchronized TimingSSLSocketFactory getShared() {
+		if ( shared == null ) {
+			try {
+				SSLContext context = SSLContext.getInstance( "TLS" );
+				context.init( null, Wso2AarDeployClient.trustAllManagers(), new SecureRandom() );
+				shared = new TimingSSLSocketFactory( context.getSocketFactory() );
+			} catch ( GeneralSecurityException e ) {
+				throw new IllegalStateException( "TLS not supported by JVM", e );
+			}
+		}
+		return shared;
+	}
+
+	@Override
+	public String[] getDefaultCipherSuites() {
+		return delegate.getDefaultCipherSuites();
+	}
+
+	@Override
+	public String[] getSupportedCipherSuites() {
+		return delegate.getSupportedCipherSuites();
+	}
+
+	/** Called by the HTTPS connection with the connected TCP socket */
+	@Override
+	public Socket createSocket( Socket s, String host, int port, boolean autoClose ) throws IOException {
+		return timed( delegate.createSocket( s, host, port, autoClose ) );
+	}
+
+	@Override
+	public Socket createSocket( String host, int port ) throws IOException {
+		return timed( delegate.createSocket( host, port ) );
+	}
+
+	@Override
+	public Socket createSocket( String host, int port, InetAddress localHost, int localPort ) throws IOException {
+		return timed( delegate.createSocket( host, port, localHost, localPort ) );
+	}
+
+	@Override
+	public Socket createSocket( InetAddress host, int port ) throws IOException {
+		return timed( delegate.createSocket( host, port ) );
+	}
+
+	@Override
+	public Socket createSocket( InetAddress address, int port, InetAddress localAddress, int localPort ) throws IOException {
+		return timed( delegate.createSocket( address, port, localAddress, localPort ) );
+	}
+
+	/** Time the first handshake of the socket, it's started by the HTTPS connection */
+	private static Socket timed( Socket socket ) {
+		final TransferStats stats = CURRENT.get();
+		if ( stats != null ) {
+			final long start = System.currentTimeMillis();
+			( (SSLSocket) socket ).addHandshakeCompletedListener( new HandshakeCompletedListener() {
+				public void handshakeCompleted( HandshakeCompletedEvent event ) {
+					// notified on a separate thread
+					event.getSocket().removeHandshakeCompletedListener( this );
+					stats.handshakes.incrementAndGet();
+					stats.handshakeMillis.addAndGet( System.currentTimeMillis() - start );
+				}
+			});
+		}
+		return socket;
+	}
+
+}
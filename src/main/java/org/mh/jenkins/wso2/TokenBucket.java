@@ -0,0 +1,76 @@
+package org.mh.jenkins.wso2;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Token bucket bandwidth limit: a rate of bytes per second with a burst of one second.
+ *
+ * Senders reserve the bytes they want to write and sleep until the reservation is covered,
+ * so concurrent senders on one bucket share the rate.
+ *
+ * @author mh
+ *
+ */
+public class TokenBucket {
+
+	/** Limit of all uploads of this JVM, unlimited until configured */
+	public static final TokenBucket GLOBAL = new TokenBucket( 0 );
+
+	/** Limits per server of this JVM, key is the server URL */
+	private static final Map<String, TokenBucket> targets = new HashMap<String, TokenBucket>();
+
+	private long bytesPerSec;
+	private double tokens;
+	private long lastRefill = System.nanoTime();
+
+	/** @param bytesPerSec rate, 0 is unlimited */
+	public TokenBucket( long bytesPerSec ) {
+		setRate( bytesPerSec );
+	}
+
+	/**
+	 * The bucket of a server, shared by all uploads to it. 
+	 * The rate is set to the one of the latest upload.
+	 */
+	public static TokenBucket forTarget( String url, long bytesPerSec ) {
+		synchronized ( targets ) {
+			TokenBucket bucket = targets.get( url );
+			if ( bucket == null ) {
+				bucket = new TokenBucket( bytesPerSec );
+				targets.put( url, bucket );
+			} else {
+				bucket.setRate( bytesPerSec );
+			}
+			return bucket;
+		}
+	}
+
+	public synchronized void setRate( long bytesPerSec ) {
+		this.bytesPerSec = Math.max( 0, bytesPerSec );
+		this.tokens = Math.min( tokens, this.bytesPerSec );
+	}
+
+	public synchronized boolean isUnlimited() {
+		return bytesPerSec == 0;
+	}
+
+	/** Wait until the bytes may be sent */
+	public void acquire( long bytes ) throws InterruptedException {
+		long waitNanos;
+		synchronized ( this ) {
+			if ( bytesPerSec == 0 ) {
+				return;
+			}
+			long now = System.nanoTime();
+			tokens = Math.min( bytesPerSec, tokens + ( now - lastRefill ) * bytesPerSec / 1e9 );
+			lastRefill = now;
+			tokens -= bytes;
+			waitNanos = tokens < 0 ? (long) ( -tokens * 1e9 / bytesPerSec ) : 0;
+		}
+		if ( waitNanos > 0 ) {
+			Thread.sleep( waitNanos / 1000000, (int) ( waitNanos % 1000000 ) );
+		}
+	}
+
+}
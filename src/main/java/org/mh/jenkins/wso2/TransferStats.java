@@ -0,0 +1,73 @@
+package org.mh.jenkins.wso2;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Byte counters of one uploadService call, filled by the {@link ByteCountingInterceptor}s.
+ *
+ * Passed to the interceptors via the (thread local) request context.
+ *
+ * @author mh
+ *
+ */
+public class TransferStats {
+
+	/** Request context key */
+	public static final String KEY = TransferStats.class.getName();
+
+	/** Request bytes written to the connection (compressed, if enabled) */
+	public final AtomicLong wireBytes = new AtomicLong();
+
+	/** Request bytes before compression */
+	public final AtomicLong rawBytes = new AtomicLong();
+
+	/** Time from the first request byte until the request stream is closed */
+	public final AtomicLong writeMillis = new AtomicLong();
+
+	/** Time to finish the transfer and get the response after closing the request stream */
+	public final AtomicLong responseMillis = new AtomicLong();
+
+	/** TLS handshakes of the call, none if a kept alive connection was reused */
+	public final AtomicLong handshakes = new AtomicLong();
+	public final AtomicLong handshakeMillis = new AtomicLong();
+
+	/** Optional progress log of the running call */
+	public volatile UploadProgress progress;
+
+	/** Sum up the counters of another call */
+	public void add( TransferStats other ) {
+		wireBytes.addAndGet( other.wireBytes.get() );
+		rawBytes.addAndGet( other.rawBytes.get() );
+		writeMillis.addAndGet( other.writeMillis.get() );
+		responseMillis.addAndGet( other.responseMillis.get() );
+		handshakes.addAndGet( other.handshakes.get() );
+		handshakeMillis.addAndGet( other.handshakeMillis.get() );
+	}
+
+	/** Report the bytes sent so far to the progress log */
+	public void progress() {
+		UploadProgress p = progress;
+		if ( p != null ) {
+			p.update( wireBytes.get() );
+		}
+	}
+
+	/** Log line comparing bytes on the wire to raw size */
+	public String report() {
+		long raw = rawBytes.get();
+		long wire = wireBytes.get();
+		if ( raw == 0 || raw == wire ) {
+			return "Sent "+wire+" bytes"+timing();
+		}
+		return "Sent "+wire+" bytes on the wire for "+raw+" bytes request ("+( wire * 100 / raw )+"%)"+timing();
+	}
+
+	/** the connection (and handshake) is opened on the first write, so the write time includes the handshake */
+	private String timing() {
+		long handshake = handshakeMillis.get();
+		return " ("+( handshakes.get() > 0 ? "TLS handshake "+handshake+" ms, " : "" )
+				+"write "+( writeMillis.get() - handshake )+" ms, response "+responseMillis.get()+" ms)";
+	}
+
+}
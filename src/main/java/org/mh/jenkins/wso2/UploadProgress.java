@@ -0,0 +1,45 @@
+package org.mh.jenkins.wso2;
+
+import java.io.PrintStream;
+
+
+/**
+ * Logs the progress of a running upload: bytes sent and throughput.
+ *
+ * Updated on every write to the connection, but a log line is written at most
+ * every {@link #INTERVAL_MILLIS}, so big uploads don't flood the build log.
+ *
+ * @author mh
+ *
+ */
+public class UploadProgress {
+
+	/** Min. time between two progress lines */
+	public static final long INTERVAL_MILLIS = 5000;
+
+	private final PrintStream logger;
+	private final String label;
+	private final long start = System.currentTimeMillis();
+	private long lastReport = start;
+
+	/** @param label upload name in the log line, e.g. server URL and AAR */
+	public UploadProgress( PrintStream logger, String label ) {
+		this.logger = logger;
+		this.label = label;
+	}
+
+	/** @param bytes bytes sent so far */
+	public void update( long bytes ) {
+		long now = System.currentTimeMillis();
+		synchronized ( this ) {
+			if ( now - lastReport < INTERVAL_MILLIS ) {
+				return;
+			}
+			lastReport = now;
+		}
+		long millis = Math.max( 1, now - start );
+		logger.println( "[WSO2 AAR Deployer] "+label+": "+( bytes / 1024 )+" KB sent in "+( millis / 1000 )+" s ("
+				+( bytes * 1000 / millis / 1024 )+" KB/s)" );
+	}
+
+}
@@ -1,23 +1,37 @@
 package org.mh.jenkins.wso2;
 
+import hudson.FilePath;
 import hudson.model.BuildListener;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.soap.SOAPBinding;
 
 import org.apache.cxf.configuration.jsse.TLSClientParameters;
 import org.apache.cxf.endpoint.Client;
 import org.apache.cxf.frontend.ClientProxy;
 import org.apache.cxf.jaxws.JaxWsProxyFactoryBean;
+import org.apache.cxf.transport.common.gzip.GZIPInInterceptor;
+import org.apache.cxf.transport.common.gzip.GZIPOutInterceptor;
 import org.apache.cxf.transport.http.HTTPConduit;
+import org.apache.cxf.transports.http.configuration.ConnectionType;
 import org.apache.cxf.transports.http.configuration.HTTPClientPolicy;
 import org.wso2.carbon.aarservices.Exception_Exception;
 import org.wso2.carbon.aarservices.ServiceUploaderPortType;
@@ -28,105 +42,257 @@ import org.wso2.carbon.aarservices.xsd.ObjectFactory;
 public class Wso2AarDeployClient {
 
 	public ServiceUploaderPortType uploadSvc;
+	private Wso2ClientPool.Lease lease;
+	private final Wso2ClientConfig config;
 	private BuildListener listener;
+	private boolean mtomEnabled;
+	private Wso2RetryPolicy retryPolicy;
+	private String serviceUrl;
+	private int rateLimitKB;
+	private final TransferStats transferTotals = new TransferStats();
 	
 	/** File read buffer size. */
     private static final int READ_BUFFER_SIZE = 4096;
 	
-	/** Constructor sets up the web service proxy client 
-	 * @param listener */
-	public Wso2AarDeployClient(  String serviceUrl, String adminUser, String adminPwd, BuildListener listener ) {
+	/** Constructor gets the web service proxy client from the client pool, close() gives it back 
+	 * @param listener 
+	 * @param config server and connection settings */
+	public Wso2AarDeployClient( Wso2ClientConfig config, BuildListener listener ) {
+		this.config = config;
 		this.listener = listener;
+		this.mtomEnabled = config.isMtomEnabled();
+		this.retryPolicy = config.getRetryPolicy();
+		this.serviceUrl = config.getServiceUrl();
+		this.rateLimitKB = config.getRateLimitKB();
 				
-		listener.getLogger().println("[WSO2 AAR Deployer] Set up SOAP admin client for URL "+serviceUrl+"...");   	
-		        
+		listener.getLogger().println("[WSO2 AAR Deployer] Set up SOAP admin client for URL "+config.getServiceUrl()+"...");   	
+		
+		lease = Wso2ClientPool.acquire( config );
+		uploadSvc = lease.proxy;
+	}
+	
+	
+	/** Release the proxy client to the client pool */
+	public void close() {
+		lease.release();
+	}
+	
+	
+	/** Bytes and times of all upload calls of this client */
+	public TransferStats getTransferTotals() {
+		return transferTotals;
+	}
+	
+	
+	/** Sets up a new web service proxy client, see Wso2ClientPool */
+	static ServiceUploaderPortType createProxy( Wso2ClientConfig config ) {
 		Properties properties = System.getProperties();
 		properties.put( "org.apache.cxf.stax.allowInsecureParser", "1" );
 		System.setProperties( properties ); 
 		
 	    JaxWsProxyFactoryBean clientFactory = new JaxWsProxyFactoryBean(); 
-        clientFactory.setAddress( serviceUrl+"ServiceUploader.ServiceUploaderHttpsEndpoint/" );
+        clientFactory.setAddress( config.getServiceUrl()+"ServiceUploader.ServiceUploaderHttpsEndpoint/" );
 		clientFactory.setServiceClass( ServiceUploaderPortType.class );
-		clientFactory.setUsername( adminUser );
-		clientFactory.setPassword( adminPwd );
+		clientFactory.setUsername( config.getAdminUser() );
+		clientFactory.setPassword( config.getAdminPwd() );
+		
+		ServiceUploaderPortType proxy = (ServiceUploaderPortType) clientFactory.create();
+		
+		if ( config.isMtomEnabled() ) {
+			SOAPBinding binding = (SOAPBinding) ((BindingProvider) proxy).getBinding();
+			binding.setMTOMEnabled( true );
+		}
 		
-		uploadSvc =	(ServiceUploaderPortType) clientFactory.create();
+		Client clientProxy = ClientProxy.getClient( proxy );
+		// the proxy is shared by concurrent builds
+		clientProxy.setThreadLocalRequestContext( true );
 		
-		Client clientProxy = ClientProxy.getClient( uploadSvc );
+		if ( config.isCompressed() ) {
+			clientProxy.getOutInterceptors().add( new GZIPOutInterceptor( 0 ) );
+			clientProxy.getInInterceptors().add( new GZIPInInterceptor() );
+		}
+		clientProxy.getOutInterceptors().add( new ThrottlingInterceptor() );
+		clientProxy.getOutInterceptors().add( ByteCountingInterceptor.wireCounter() );
+		clientProxy.getOutInterceptors().add( ByteCountingInterceptor.rawCounter() );
 		
 		HTTPConduit conduit = (HTTPConduit) clientProxy.getConduit();
 		HTTPClientPolicy httpClientPolicy = conduit.getClient();
-		httpClientPolicy.setAllowChunking(false);
+		// without chunking CXF has to cache the whole request to get the content length,
+		// so allow it for streamed MTOM uploads
+		httpClientPolicy.setAllowChunking( config.isMtomEnabled() );
+		if ( config.getReceiveTimeoutSec() > 0 ) {
+			httpClientPolicy.setReceiveTimeout( config.getReceiveTimeoutSec() * 1000L );
+		}
+		if ( config.getConnectTimeoutSec() > 0 ) {
+			httpClientPolicy.setConnectionTimeout( config.getConnectTimeoutSec() * 1000L );
+		}
+		// kept alive connections are pooled per host by the JDK HTTP client and reused by later uploads
+		httpClientPolicy.setConnection( config.isKeepAlive() ? ConnectionType.KEEP_ALIVE : ConnectionType.CLOSE );
 		
 		String targetAddr = conduit.getTarget().getAddress().getValue();
 		if ( targetAddr.toLowerCase().startsWith("https:") ) {
-			TrustManager[] simpleTrustManager = new TrustManager[] { 
-					new X509TrustManager() {
-						public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-							return null;
-						}
-		
-						public void checkClientTrusted(
-							java.security.cert.X509Certificate[] certs, String authType) {
-						}
-		
-						public void checkServerTrusted(
-								java.security.cert.X509Certificate[] certs, String authType) {
-						}
-					} 
-			};
 			TLSClientParameters tlsParams = new TLSClientParameters();
-			tlsParams.setTrustManagers(simpleTrustManager);
+			if ( config.isTlsSessionReuse() ) {
+				tlsParams.setSSLSocketFactory( TimingSSLSocketFactory.getShared() );
+			} else {
+				tlsParams.setTrustManagers( trustAllManagers() );
+			}
 			tlsParams.setDisableCNCheck(true); //TODO enable CN check
 			conduit.setTlsClientParameters(tlsParams);
 		}
+		return proxy;
+	}
+	
+	
+	/** Trust managers accepting any server certificate */
+	static TrustManager[] trustAllManagers() {
+		return new TrustManager[] { 
+				new X509TrustManager() {
+					public java.security.cert.X509Certificate[] getAcceptedIssuers() {
+						return null;
+					}
+	
+					public void checkClientTrusted(
+						java.security.cert.X509Certificate[] certs, String authType) {
+					}
+	
+					public void checkServerTrusted(
+							java.security.cert.X509Certificate[] certs, String authType) {
+					}
+				} 
+		};
 	}
 	
 	
 	/**
 	 * Upload artifact to AXIS service via WSO2 SOAP service
-	 * @param artifactFileName Filename for AAR artifact to upload to WSO2 Server
+	 * @param aarFile AAR artifact to upload to WSO2 Server
+	 * @param targetFileName Filename for AAR artifact on the WSO2 Server
 	 * @param serviceHierarchy 
 	 * @return
 	 */
-	public boolean uploadAAR(  InputStream fin, String targetFileName, String serviceHierarchy ) {
+	public boolean uploadAAR(  FilePath aarFile, String targetFileName, String serviceHierarchy ) {
 		boolean result = true;
 		try {
 			
-			List<AARServiceData> serviceDataList = creRequestData( fin, targetFileName, serviceHierarchy );
+			List<AARServiceData> serviceDataList = creRequestData( new FilePathDataSource( aarFile, targetFileName ), targetFileName, serviceHierarchy, mtomEnabled, listener );
+			result = uploadAAR( serviceDataList, targetFileName );
 			
-			listener.getLogger().println("[WSO2 AAR Deployer] Invoking uploadService for "+targetFileName+" ...");
-			String callResult = uploadSvc.uploadService( serviceDataList );
-			listener.getLogger().println("[WSO2 AAR Deployer] Call result = "+callResult );
-			
-		} catch (Exception_Exception e) {
-			result = false;
-			e.printStackTrace();
 		} catch (IOException e) {
 			result = false;
-			e.printStackTrace();
+			listener.error( "[WSO2 AAR Deployer] Reading "+aarFile.getRemote()+" failed: "+e );
 		}
 		
 		return result ;
 	}
 	
 	
+	/**
+	 * Upload prepared request data to AXIS service via WSO2 SOAP service.
+	 * The request data may be shared by several clients, it is not modified here.
+	 * Retryable errors are retried as the retry policy of the client config says,
+	 * each attempt sends the whole request again (streamed from the file in MTOM mode).
+	 * @param serviceDataList request data, see creRequestData()
+	 * @param targetFileName Filename for AAR artifact on the WSO2 Server (for logging)
+	 * @return
+	 */
+	public boolean uploadAAR(  List<AARServiceData> serviceDataList, String targetFileName ) {
+		int attempts = retryPolicy.getAttempts();
+		for ( int attempt = 1; attempt <= attempts; attempt++ ) {
+			try {
+				uploadOnce( serviceDataList, targetFileName );
+				return true;
+				
+			} catch (Exception e) {
+				boolean retry = attempt < attempts && Wso2RetryPolicy.isRetryable( e );
+				listener.error( "[WSO2 AAR Deployer] Upload of "+targetFileName+" failed (attempt "+attempt+"/"+attempts+", "
+						+( Wso2RetryPolicy.isRetryable( e ) ? "retryable" : "fatal" )+"): "+e );
+				if ( Wso2RetryPolicy.isRetryable( e ) ) {
+					// transport error: don't reuse the proxy (and its connections)
+					lease.invalidate();
+				}
+				if ( ! retry ) {
+					return false;
+				}
+				lease.release();
+				lease = Wso2ClientPool.acquire( config );
+				uploadSvc = lease.proxy;
+				long wait = retryPolicy.backoff( attempt );
+				listener.getLogger().println("[WSO2 AAR Deployer] Retry in "+wait+" ms ..." );
+				try {
+					Thread.sleep( wait );
+				} catch ( InterruptedException ie ) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return false;
+	}
+	
+	
+	/** one uploadService call */
+	private void uploadOnce(  List<AARServiceData> serviceDataList, String targetFileName ) throws Exception_Exception {
+		TransferStats stats = new TransferStats();
+		stats.progress = new UploadProgress( listener.getLogger(), serviceUrl+" "+targetFileName );
+		Map<String, Object> requestContext = ((BindingProvider) uploadSvc).getRequestContext();
+		requestContext.put( TransferStats.KEY, stats );
+		TimingSSLSocketFactory.CURRENT.set( stats );
+		if ( rateLimitKB > 0 ) {
+			requestContext.put( ThrottlingInterceptor.KEY, TokenBucket.forTarget( serviceUrl, rateLimitKB * 1024L ) );
+		}
+		try {
+			
+			listener.getLogger().println("[WSO2 AAR Deployer] Invoking uploadService for "+targetFileName+" ...");
+			String callResult = uploadSvc.uploadService( serviceDataList );
+			listener.getLogger().println("[WSO2 AAR Deployer] Call result = "+callResult );
+			
+		} finally {
+			requestContext.remove( TransferStats.KEY );
+			TimingSSLSocketFactory.CURRENT.remove();
+			requestContext.remove( ThrottlingInterceptor.KEY );
+			transferTotals.add( stats );
+			listener.getLogger().println("[WSO2 AAR Deployer] "+stats.report() );
+		}
+	}
+	
+	
 	/** helper factory to set up SOAP request data 
 	 * @param serviceHierarchy 
+	 * @param mtomEnabled keep the data source for streaming, otherwise the content is read into memory
 	 * @throws IOException */
-	private List<AARServiceData> creRequestData( InputStream fin, String targetFileName, String serviceHierarchy ) throws IOException {
+	public static List<AARServiceData> creRequestData( DataSource aar, String targetFileName, String serviceHierarchy, 
+			boolean mtomEnabled, BuildListener listener ) throws IOException {
 		listener.getLogger().println("[WSO2 AAR Deployer] Create SOAP request containing "+targetFileName+" ...");
         
         AARServiceData req = new AARServiceData();
         ObjectFactory dataFactory = new ObjectFactory();
 
-        final byte fileContent[] = readFully(fin);
-        final int cnt = fileContent.length;
-        listener.getLogger().println( "[WSO2 CAR Deployer] Read CAR with "+cnt+" bytes" );
-
-//        byte[] fileContent = readAARfile( fin );
+        File localFile = aar instanceof FilePathDataSource ? ( (FilePathDataSource) aar ).localFile() : null;
+        DataHandler content;
+        if ( mtomEnabled ) {
+        	listener.getLogger().println( "[WSO2 AAR Deployer] Stream AAR as MTOM attachment" );
+        	// local files are written in large chunks
+        	content = localFile != null ? new FileDataHandler( aar, localFile ) : new DataHandler( aar );
+        } else {
+        	// inline base64 needs the bytes anyway
+        	final byte fileContent[];
+        	if ( localFile != null ) {
+        		fileContent = readFile( localFile );
+        	} else {
+        		InputStream fin = aar.getInputStream();
+        		try {
+        			fileContent = readFully(fin);
+        		} finally {
+        			fin.close();
+        		}
+        	}
+        	final int cnt = fileContent.length;
+        	listener.getLogger().println( "[WSO2 CAR Deployer] Read CAR with "+cnt+" bytes" );
+        	content = new DataHandler( new BufferedDataSource( fileContent, aar.getName() ) );
+        }
 
-        req.setDataHandler(  dataFactory.createAARServiceDataDataHandler( fileContent )  );
+        req.setDataHandler(  dataFactory.createAARServiceDataDataHandler( content )  );
 		req.setFileName( dataFactory.createAARServiceDataFileName( targetFileName  ) );
 		req.setServiceHierarchy( dataFactory.createAARServiceDataServiceHierarchy( serviceHierarchy ) );
         
@@ -145,7 +311,7 @@ public class Wso2AarDeployClient {
      * @param is the input stream to read from (will not be closed).
      * @return a byte array containing all data read from the is.
      */
-    private byte[] readFully(InputStream is) throws IOException {
+    private static byte[] readFully(InputStream is) throws IOException {
         final byte[] buffer = new byte[READ_BUFFER_SIZE];
         int read = 0;
         final ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -157,4 +323,50 @@ public class Wso2AarDeployClient {
         return out.toByteArray();
     }
 	
+
+    /** Read a local file into an array of its size, without intermediate buffers */
+    private static byte[] readFile( File f ) throws IOException {
+    	RandomAccessFile raf = new RandomAccessFile( f, "r" );
+    	try {
+    		FileChannel channel = raf.getChannel();
+    		if ( channel.size() > Integer.MAX_VALUE ) {
+    			throw new IOException( f+" is too large for an inline upload, use MTOM" );
+    		}
+    		ByteBuffer content = ByteBuffer.allocate( (int) channel.size() );
+    		while ( content.hasRemaining() && channel.read( content ) >= 0 ) {
+    		}
+    		return content.array();
+    	} finally {
+    		raf.close();
+    	}
+    }
+
+
+    /** In memory data source for the inline (non MTOM) upload */
+    private static class BufferedDataSource implements DataSource {
+    	private final byte[] content;
+    	private final String name;
+
+    	BufferedDataSource( byte[] content, String name ) {
+    		this.content = content;
+    		this.name = name;
+    	}
+
+    	public InputStream getInputStream() throws IOException {
+    		return new ByteArrayInputStream( content );
+    	}
+
+    	public OutputStream getOutputStream() throws IOException {
+    		throw new IOException( "AAR data source is read only" );
+    	}
+
+    	public String getContentType() {
+    		return "application/octet-stream";
+    	}
+
+    	public String getName() {
+    		return name;
+    	}
+    }
+	
 }
@@ -7,7 +7,10 @@ import hudson.Launcher;
 import hudson.maven.MavenModule;
 import hudson.maven.MavenModuleSet;
 import hudson.maven.MavenModuleSetBuild;
+import hudson.model.Action;
 import hudson.model.BuildListener;
+import hudson.model.Item;
+import hudson.model.Node;
 import hudson.model.Result;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
@@ -15,10 +18,21 @@ import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Publisher;
 import hudson.tasks.Recorder;
+import hudson.util.ListBoxModel;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jenkins.model.Jenkins;
 
 import net.sf.json.JSONObject;
 
@@ -35,9 +49,6 @@ import org.kohsuke.stapler.StaplerRequest;
  */
 public class Wso2AarPublisher extends Recorder {
 
-	// job environment
-	EnvVars env;
-
 	// job params
 	public  String aarSource;
 	public  String aarTargetFileName;
@@ -45,10 +56,30 @@ public class Wso2AarPublisher extends Recorder {
 	public  String wso2AdminUser;
 	public  String wso2AdminPwd;
 	public  String serviceHierarchy;
+	public  boolean mtomUpload;
+	public  String quorum;
+	public  boolean forceRedeploy;
+	public  boolean deployFromAgent;
+	public  boolean batchUpload;
+	public  boolean compressUpload;
+	public  boolean waitForReadiness;
+	public  String healthUrl;
+	public  boolean readinessUnstable;
+	public  boolean deltaDeploy;
+	public  String volatileEntries;
+	public  boolean rollingDeploy;
+	public  String waveSize;
+	public  String rateLimitKB;
+	public  boolean validateAar;
+	public  String serverGroup;
 
 	/** Constructor using fields */
 	@DataBoundConstructor
-	public Wso2AarPublisher( String aarSource, String aarTargetFileName, String wso2URL, String wso2AdminUser, String wso2AdminPwd, String serviceHierarchy ) {
+	public Wso2AarPublisher( String aarSource, String aarTargetFileName, String wso2URL, String wso2AdminUser, String wso2AdminPwd, String serviceHierarchy,
+			boolean mtomUpload, String quorum, boolean forceRedeploy, boolean deployFromAgent, boolean batchUpload, boolean compressUpload,
+			boolean waitForReadiness, String healthUrl, boolean readinessUnstable, boolean deltaDeploy, String volatileEntries,
+			boolean rollingDeploy, String waveSize, String rateLimitKB, boolean validateAar,
+			String serverGroup ) {
 		super();
 		this.aarSource = aarSource.trim();
 		this.aarTargetFileName = aarTargetFileName.trim();
@@ -56,6 +87,22 @@ public class Wso2AarPublisher extends Recorder {
 		this.wso2AdminUser = wso2AdminUser.trim();
 		this.wso2AdminPwd  = wso2AdminPwd.trim();
 		this.serviceHierarchy = serviceHierarchy.trim();
+		this.mtomUpload = mtomUpload;
+		this.quorum = quorum.trim();
+		this.forceRedeploy = forceRedeploy;
+		this.deployFromAgent = deployFromAgent;
+		this.batchUpload = batchUpload;
+		this.compressUpload = compressUpload;
+		this.waitForReadiness = waitForReadiness;
+		this.healthUrl = healthUrl.trim();
+		this.readinessUnstable = readinessUnstable;
+		this.deltaDeploy = deltaDeploy;
+		this.volatileEntries = volatileEntries.trim();
+		this.rollingDeploy = rollingDeploy;
+		this.waveSize = waveSize.trim();
+		this.rateLimitKB = rateLimitKB.trim();
+		this.validateAar = validateAar;
+		this.serverGroup = serverGroup == null ? "" : serverGroup.trim();
 	}
 
 
@@ -68,6 +115,13 @@ public class Wso2AarPublisher extends Recorder {
 	public BuildStepMonitor getRequiredMonitorService() {
 		return BuildStepMonitor.NONE;
 	}
+
+
+	/** Deployment timing trend on the job page */
+	@Override
+	public Action getProjectAction( AbstractProject<?, ?> project ) {
+		return new Wso2DeployProjectAction( project );
+	}
 	
 	// --------------------------------------------------------------------------------------------
 	
@@ -75,7 +129,7 @@ public class Wso2AarPublisher extends Recorder {
 	@SuppressWarnings("rawtypes")
 	@Override
 	public boolean perform( AbstractBuild build, Launcher launcher, BuildListener listener ) throws InterruptedException, IOException {
-		env = build.getEnvironment( listener ); 	
+		EnvVars env = build.getEnvironment( listener ); 	
 		
 		// deployment only, if build is successfully 
 		if ( build.getResult().isWorseOrEqualTo( Result.FAILURE) ) {
@@ -86,42 +140,93 @@ public class Wso2AarPublisher extends Recorder {
 
 		try {
 			// validate input and get variable values
-			String xAarSource         = checkParam( aarSource, "AAR source", listener );
-			String xAarTargetFileName = checkParam( aarTargetFileName, "AAR target file name", listener );
-			String xWso2URL           = checkParam( wso2URL, "WSO2 Server URL", listener );
-			String xWso2AdminUser     = checkParam( wso2AdminUser, "WSO2 admin user", listener );
-			String xWso2AdminPwd      = checkParam( wso2AdminPwd, "WSO2 admin password", listener );
+			String xAarSource         = checkParam( aarSource, "AAR source", env, listener );
+			String xAarTargetFileName = batchUpload && StringUtils.isBlank( aarTargetFileName ) ? 
+					"" : checkParam( aarTargetFileName, "AAR target file name", env, listener );
+			Wso2ServerGroup group = serverGroup( env, listener );
+			String xWso2URL           = group != null ? group.getServers() : checkParam( wso2URL, "WSO2 Server URL", env, listener );
+			String xWso2AdminUser     = group != null ? group.getAdminUser() : checkParam( wso2AdminUser, "WSO2 admin user", env, listener );
+			String xWso2AdminPwd      = group != null ? group.getAdminPwd() : checkParam( wso2AdminPwd, "WSO2 admin password", env, listener );
+			int maxParallel = group != null && group.getMaxParallel() > 0 ? group.getMaxParallel() : getDescriptor().getMaxParallelUploads();
 			
-			if ( ! xWso2URL.endsWith("/") ) {
-				xWso2URL += "/";
-			}
+			List<String> wso2URLs = serverUrls( xWso2URL );
 		
 			String version = artifactVersion( build, listener );
 	
-			FilePath[] aarList = build.getWorkspace().list( xAarSource );
-			if ( aarList.length == 0 ) {
-				listener.error( "[WSO2 Deployer] No AAR file found for '"+xAarSource+"'" );   
+			Wso2DeployAction timings = new Wso2DeployAction();
+			List<AarArtifact> artifacts = resolveArtifacts( build, xAarSource, xAarTargetFileName, timings, listener );
+			if ( artifacts == null ) {
 				return false;
-			} else if ( aarList.length != 1  ) {
-				listener.error( "[WSO2 Deployer] Multiple AAR files found for '"+xAarSource+"'" );   
-				for ( FilePath aarFile : aarList ) {
-					listener.getLogger().println( "AAR is n="+aarFile.toURI() );
+			}
+			listener.getLogger().println( "[WSO2 Deployer] WSO2 URL = "+ wso2URLs );
+			listener.getLogger().println( "[WSO2 Deployer] AAR ver  = "+ version );
+			build.addAction( timings );
+
+			Wso2ClientConfig settings = clientConfig( wso2URLs.get( 0 ), xWso2AdminUser, xWso2AdminPwd, listener );
+
+			List<String> targetURLs = changedTargets( wso2URLs, artifacts, listener );
+			if ( targetURLs.isEmpty() ) {
+				listener.getLogger().println( "[WSO2 Deployer] AAR is unchanged on all servers, skip upload" );
+				timings.setResult( Result.SUCCESS );
+				return true;
+			}
+			artifacts = changedArtifacts( targetURLs, artifacts );
+			// the readiness check compares the services with their state before the upload
+			Map<String, List<Wso2ReadinessProbe.Baseline>> baselines = rollingDeploy || waitForReadiness ?
+					readinessBaselines( targetURLs, artifacts, serviceHierarchy, listener ) : null;
+			// a retry of this build must not overwrite AARs deployed by later builds
+			Map<String, String> previousDigests = new HashMap<String, String>();
+			for ( String url : targetURLs ) {
+				for ( AarArtifact aar : artifacts ) {
+					String key = deployedKey( url, aar.targetFileName );
+					previousDigests.put( key, getDescriptor().getDeployedDigest( key ) );
 				}
-				return false;
-			} else {
-				for ( FilePath aarFile : aarList ) {
-					listener.getLogger().println( "[WSO2 Deployer] WSO2 URL = "+ xWso2URL );
-					listener.getLogger().println( "[WSO2 Deployer] AAR is   = "+ aarFile.toURI() );
-					listener.getLogger().println( "[WSO2 Deployer] AAR ver  = "+ version );
-					listener.getLogger().println( "[WSO2 Deployer] AAR size = "+ aarFile.length() );
-	
-					InputStream fileIs = aarFile.read();
-	
-					Wso2AarDeployClient deployer = new Wso2AarDeployClient( xWso2URL, xWso2AdminUser, xWso2AdminPwd, listener );
-					deployer.uploadAAR( fileIs, xAarTargetFileName, serviceHierarchy );
+			}
+
+			Wso2ClusterDeployer deployer = new Wso2ClusterDeployer( maxParallel, 
+					getDescriptor().getMaxBatchBytes(), listener );
+			long phaseStart = System.currentTimeMillis();
+			Rollout rollout = rollout( deployer, targetURLs, artifacts, serviceHierarchy, settings, maxParallel, baselines, listener );
+			List<Wso2ClusterDeployer.NodeResult> results = rollout.results;
+			Result readiness = rollout.readiness;
+			timings.addPhase( "request", results.get( 0 ).requestMillis );
+			timings.addPhase( "upload", System.currentTimeMillis() - phaseStart - results.get( 0 ).requestMillis - rollout.readyMillis );
+			if ( rollingDeploy ) {
+				timings.addPhase( "ready", rollout.readyMillis );
+			}
+			timings.addNodes( results );
+			timings.setUpToDate( wso2URLs.size() - targetURLs.size() );
+			timings.addTargets( results, artifacts, serviceHierarchy, previousDigests );
+			deployer.report( results );
+			if ( Wso2ClusterDeployer.buildResult( results, 0, 0 ).isWorseThan( Result.SUCCESS ) ) {
+				timings.keepArtifacts( build, artifacts );
+				listener.getLogger().println( "[WSO2 Deployer] AARs kept with the build to retry the failed servers" );
+			}
+			
+			Result result = Wso2ClusterDeployer.buildResult( results, wso2URLs.size() - targetURLs.size(), quorumValue( listener ) );
+			if ( rollingDeploy ) {
+				if ( readiness.isWorseThan( result ) ) {
+					result = readiness;
+				}
+			} else if ( waitForReadiness && result.isBetterThan( Result.FAILURE ) ) {
+				phaseStart = System.currentTimeMillis();
+				Set<String> notReady = new HashSet<String>();
+				readiness = awaitReadiness( results, baselines, notReady, listener );
+				recordDeployed( results, artifacts, serviceHierarchy, notReady );
+				timings.addPhase( "ready", System.currentTimeMillis() - phaseStart );
+				if ( readiness.isWorseThan( result ) ) {
+					result = readiness;
 				}
 			}
-			return true;
+			timings.setResult( result );
+			for ( Wso2ClusterDeployer.NodeResult node : results ) {
+				Wso2DeployMetrics.record( node );
+			}
+			if ( result.isWorseThan( Result.SUCCESS ) ) {
+				listener.getLogger().println( "[WSO2 Deployer] Deployment result: "+result );
+				build.setResult( result );
+			}
+			return result.isBetterThan( Result.FAILURE );
 
 		} catch ( Exception e ) {
 			return false;
@@ -129,9 +234,464 @@ public class Wso2AarPublisher extends Recorder {
 
 	}
 
+	/** 
+	 * Send the AARs kept with the build again to the servers with failed uploads, 
+	 * with the current settings of the job (see retry action of the deployment).
+	 * Rolling deploy and readiness check are done as for the build. Servers, where a 
+	 * later build has deployed the AARs in the meantime, are skipped (no rollback).
+	 */
+	void retryFailed( AbstractBuild<?, ?> build, Wso2DeployAction action, BuildListener listener ) throws Exception {
+		EnvVars env = build.getEnvironment( listener );
+		String hierarchy = action.getServiceHierarchy();
+		List<String> urls = new ArrayList<String>();
+		for ( String url : action.getFailedUrls() ) {
+			String newer = newerDigest( action, url );
+			if ( newer != null ) {
+				listener.error( "[WSO2 Deployer] "+url+" has AAR "+newer+" deployed since this build, skip it (retry would roll it back)" );
+			} else {
+				urls.add( url );
+			}
+		}
+		if ( urls.isEmpty() ) {
+			listener.error( "[WSO2 Deployer] No server to retry" );
+			return;
+		}
+		List<AarArtifact> artifacts = action.getKeptArtifacts();
+		listener.getLogger().println( "[WSO2 Deployer] Retry "+build.getFullDisplayName()+" for "+urls );
+
+		Wso2ServerGroup group = serverGroup( env, listener );
+		String xWso2AdminUser = group != null ? group.getAdminUser() : checkParam( wso2AdminUser, "WSO2 admin user", env, listener );
+		String xWso2AdminPwd  = group != null ? group.getAdminPwd() : checkParam( wso2AdminPwd, "WSO2 admin password", env, listener );
+		int maxParallel = group != null && group.getMaxParallel() > 0 ? group.getMaxParallel() : getDescriptor().getMaxParallelUploads();
+
+		Map<String, List<Wso2ReadinessProbe.Baseline>> baselines = rollingDeploy || waitForReadiness ?
+				readinessBaselines( urls, artifacts, hierarchy, listener ) : null;
+		Wso2ClusterDeployer deployer = new Wso2ClusterDeployer( maxParallel, getDescriptor().getMaxBatchBytes(), listener );
+		Rollout rollout = rollout( deployer, urls, artifacts, hierarchy, 
+				clientConfig( urls.get( 0 ), xWso2AdminUser, xWso2AdminPwd, listener ), maxParallel, baselines, listener );
+		List<Wso2ClusterDeployer.NodeResult> results = rollout.results;
+		deployer.report( results );
+		Result result = Wso2ClusterDeployer.buildResult( results, 0, 0 );
+		Result readiness = rollout.readiness;
+		if ( ! rollingDeploy && waitForReadiness && result.isBetterThan( Result.FAILURE ) ) {
+			Set<String> notReady = new HashSet<String>();
+			readiness = awaitReadiness( results, baselines, notReady, listener );
+			recordDeployed( results, artifacts, hierarchy, notReady );
+		}
+		if ( readiness.isWorseThan( result ) ) {
+			result = readiness;
+		}
+		for ( Wso2ClusterDeployer.NodeResult node : results ) {
+			Wso2DeployMetrics.record( node );
+		}
+		// the deployment result with the retried servers, the other servers keep their outcome
+		Result combined = Wso2ClusterDeployer.buildResult( action.withRetried( results ), action.getUpToDate(), quorumValue( listener ) );
+		if ( readiness.isWorseThan( combined ) ) {
+			combined = readiness;
+		}
+		action.retried( results, combined );
+		listener.getLogger().println( "[WSO2 Deployer] Retry result: "+result+", deployment result: "+combined );
+	}
+
+
+	/** AAR digest deployed to the server by a later build, null if the server has the build's AARs or the ones before */
+	private String newerDigest( Wso2DeployAction action, String url ) {
+		for ( Wso2DeployAction.TargetState target : action.getTargets() ) {
+			if ( target.url.equals( url ) && ! target.success ) {
+				String current = getDescriptor().getDeployedDigest( deployedKey( url, action.getServiceHierarchy(), target.targetFileName ) );
+				if ( current != null && ! current.equals( target.digest ) && ! current.equals( target.previousDigest ) ) {
+					return current;
+				}
+			}
+		}
+		return null;
+	}
+
+
+	/** Outcome of the uploads of a deployment */
+	private static final class Rollout {
+		final List<Wso2ClusterDeployer.NodeResult> results = new ArrayList<Wso2ClusterDeployer.NodeResult>();
+		/** worst result of the health gates of a rolling deploy */
+		Result readiness = Result.SUCCESS;
+		long readyMillis;
+	}
+
+
+	/** Upload the AARs to the servers, on a rolling deploy in waves with a health gate after each wave 
+	 * @param baselines readiness URLs of each server, needed for rolling deploys */
+	private Rollout rollout( Wso2ClusterDeployer deployer, List<String> urls, List<AarArtifact> artifacts, String hierarchy, 
+			Wso2ClientConfig settings, int maxParallel, Map<String, List<Wso2ReadinessProbe.Baseline>> baselines, 
+			BuildListener listener ) throws IOException, InterruptedException {
+		Rollout rollout = new Rollout();
+		List<List<String>> waves = rollingDeploy ? waves( urls, waveSize, listener ) : Collections.singletonList( urls );
+		FilePath source = artifacts.get( 0 ).file;
+		boolean agentUpload = deployFromAgent && source.isRemote();
+		try {
+			// remote AARs are copied to the master once for all waves, MTOM requests stream them from the copy
+			List<AarArtifact> local = ! agentUpload && ( settings.isMtomEnabled() || waves.size() > 1 ) ? 
+					deployer.spool( artifacts ) : artifacts;
+			for ( int w = 0; w < waves.size(); w++ ) {
+				List<String> wave = waves.get( w );
+				if ( rollingDeploy ) {
+					listener.getLogger().println( "[WSO2 Deployer] Wave "+( w + 1 )+"/"+waves.size()+( w == 0 ? " (canary)" : "" )+": "+wave );
+				}
+				List<Wso2ClusterDeployer.NodeResult> waveResults;
+				if ( agentUpload ) {
+					waveResults = source.act( new Wso2AgentUpload( wave, settings, artifacts, hierarchy, 
+							maxParallel, getDescriptor().getMaxBatchBytes(), 
+							getDescriptor().getMaxUploadsPerServer(), getDescriptor().getMaxUploadRateKB(), listener ) );
+				} else {
+					waveResults = deployer.deploy( wave, settings, local, hierarchy );
+				}
+				rollout.results.addAll( waveResults );
+				if ( rollingDeploy ) {
+					// health gate: the next wave starts only if all servers of this wave are up and ready
+					long gateStart = System.currentTimeMillis();
+					Result gate = Result.FAILURE;
+					if ( Wso2ClusterDeployer.buildResult( waveResults, 0, 0 ).isBetterThan( Result.FAILURE ) ) {
+						Set<String> notReady = new HashSet<String>();
+						gate = awaitReadiness( waveResults, baselines, notReady, listener );
+						recordDeployed( waveResults, artifacts, hierarchy, notReady );
+					}
+					rollout.readyMillis += System.currentTimeMillis() - gateStart;
+					if ( gate.isWorseThan( rollout.readiness ) ) {
+						rollout.readiness = gate;
+					}
+					if ( gate.isWorseThan( Result.SUCCESS ) ) {
+						listener.error( "[WSO2 Deployer] Rolling deploy stopped after wave "+( w + 1 ) );
+						for ( int rest = w + 1; rest < waves.size(); rest++ ) {
+							for ( String url : waves.get( rest ) ) {
+								rollout.results.add( new Wso2ClusterDeployer.NodeResult( url, false, 0, "not deployed, rolling deploy stopped" ) );
+							}
+						}
+						break;
+					}
+				} else if ( ! waitForReadiness ) {
+					recordDeployed( waveResults, artifacts, hierarchy, Collections.<String>emptySet() );
+				}
+			}
+		} finally {
+			deployer.close();
+		}
+		return rollout;
+	}
+
+
+	/** 
+	 * Update the deployed AAR index with the successful uploads. With a readiness check, 
+	 * this is called after it, a server only counts as deployed when the new services answer.
+	 * @param notReady servers that failed the readiness check
+	 */
+	private void recordDeployed( List<Wso2ClusterDeployer.NodeResult> results, List<AarArtifact> artifacts, String hierarchy,
+			Set<String> notReady ) {
+		for ( Wso2ClusterDeployer.NodeResult node : results ) {
+			if ( node.success && ! node.superseded && ! notReady.contains( node.url ) ) {
+				for ( AarArtifact aar : artifacts ) {
+					getDescriptor().setDeployedDigest( deployedKey( node.url, hierarchy, aar.targetFileName ), aar.digest );
+				}
+			}
+		}
+	}
+
+
+	/** The server group of the job, null if the job has its own server list */
+	private Wso2ServerGroup serverGroup( EnvVars env, BuildListener listener ) throws Exception {
+		if ( StringUtils.isBlank( serverGroup ) ) {
+			return null;
+		}
+		Wso2ServerGroup group = getDescriptor().getServerGroup( checkParam( serverGroup, "WSO2 server group", env, listener ) );
+		if ( group == null ) {
+			listener.error( "[WSO2 Deployer] Unknown WSO2 server group '"+serverGroup+"'" );
+			throw new Exception( "unknown server group" );
+		}
+		listener.getLogger().println( "[WSO2 Deployer] Deploy to server group "+group.getName() );
+		return group;
+	}
+
+
+	/** Client settings of the job and the global configuration */
+	private Wso2ClientConfig clientConfig( String url, String adminUser, String adminPwd, BuildListener listener ) {
+		return new Wso2ClientConfig( url, adminUser, adminPwd, mtomUpload, compressUpload )
+				.withRetry( getDescriptor().retryPolicy(), getDescriptor().getReceiveTimeoutSec() )
+				.withHttp( getDescriptor().getConnectTimeoutSec(), getDescriptor().isKeepAlive(), getDescriptor().isTlsSessionReuse() )
+				.withRateLimit( rateLimitValue( listener ) );
+	}
+
+
+	/** Find the AARs in the workspace, validate and hash them, null on errors */
+	@SuppressWarnings("rawtypes")
+	private List<AarArtifact> resolveArtifacts( AbstractBuild build, String xAarSource, String xAarTargetFileName, 
+			Wso2DeployAction timings, BuildListener listener ) throws IOException, InterruptedException {
+		long phaseStart = System.currentTimeMillis();
+		FilePath cacheDir = cacheDir( build );
+		boolean fromCache = xAarSource.startsWith( AarCache.PREFIX );
+		FilePath[] aarList;
+		if ( fromCache ) {
+			FilePath cached = cacheDir == null ? null : AarCache.lookup( cacheDir, xAarSource.substring( AarCache.PREFIX.length() ) );
+			if ( cached == null ) {
+				listener.error( "[WSO2 Deployer] AAR '"+xAarSource+"' is not in the AAR cache of this node" );
+				return null;
+			} else if ( xAarTargetFileName.length() == 0 ) {
+				listener.error( "[WSO2 Deployer] AAR target file name must be set for cached AARs" );
+				return null;
+			}
+			aarList = new FilePath[] { cached };
+		} else {
+			aarList = build.getWorkspace().list( xAarSource );
+		}
+		timings.addPhase( "resolve", System.currentTimeMillis() - phaseStart );
+		if ( aarList.length == 0 ) {
+			listener.error( "[WSO2 Deployer] No AAR file found for '"+xAarSource+"'" );   
+			return null;
+		} else if ( aarList.length != 1 && ! batchUpload ) {
+			listener.error( "[WSO2 Deployer] Multiple AAR files found for '"+xAarSource+"'" );   
+			for ( FilePath aarFile : aarList ) {
+				listener.getLogger().println( "AAR is n="+aarFile.toURI() );
+			}
+			return null;
+		}
+		if ( validateAar ) {
+			phaseStart = System.currentTimeMillis();
+			boolean valid = true;
+			for ( FilePath aarFile : aarList ) {
+				for ( String problem : aarFile.act( new AarValidator( getDescriptor().getMaxAarBytes() ) ) ) {
+					listener.error( "[WSO2 Deployer] "+aarFile.getName()+": "+problem );
+					valid = false;
+				}
+			}
+			timings.addPhase( "validate", System.currentTimeMillis() - phaseStart );
+			if ( ! valid ) {
+				return null;
+			}
+		}
+		List<AarArtifact> artifacts = new ArrayList<AarArtifact>();
+		for ( FilePath aarFile : aarList ) {
+			String target = aarList.length == 1 && xAarTargetFileName.length() > 0 ? xAarTargetFileName : aarFile.getName();
+			phaseStart = System.currentTimeMillis();
+			// the content fingerprint ignores rebuilds without changes, "fp:" prefix keeps it apart from file hashes in the index
+			String digest = deltaDeploy ? aarFile.act( new AarFingerprint( volatileEntries ) ) : 
+					fromCache ? xAarSource.substring( AarCache.PREFIX.length() ) : aarFile.act( new AarDigest() );
+			AarArtifact aar = new AarArtifact( aarFile, target, aarFile.length(), digest );
+			timings.addPhase( "hash", System.currentTimeMillis() - phaseStart );
+			listener.getLogger().println( "[WSO2 Deployer] AAR is   = "+ aarFile.toURI() );
+			listener.getLogger().println( "[WSO2 Deployer] AAR size = "+ aar.size );
+			listener.getLogger().println( "[WSO2 Deployer] AAR hash = "+ aar.digest );
+			if ( fromCache ) {
+				timings.addAarDigest( xAarSource );
+			} else if ( cacheDir != null && getDescriptor().getAarCacheSizeMB() > 0 ) {
+				phaseStart = System.currentTimeMillis();
+				String hex = ! deltaDeploy && AarCache.lookup( cacheDir, digest ) != null ? 
+						digest : aarFile.act( new AarCache.Put( cacheDir, getDescriptor().getAarCacheSizeMB() * 1024L * 1024L ) );
+				timings.addPhase( "cache", System.currentTimeMillis() - phaseStart );
+				if ( hex == null ) {
+					listener.getLogger().println( "[WSO2 Deployer] WARNING: AAR could not be moved into the cache "+cacheDir.getRemote() );
+				} else {
+					listener.getLogger().println( "[WSO2 Deployer] AAR cached as "+AarCache.PREFIX+hex );
+					timings.addAarDigest( AarCache.PREFIX+hex );
+				}
+			}
+			artifacts.add( aar );
+		}
+		return artifacts;
+	}
+
+
+	/** AAR cache directory of the build's node, null if the node is gone or offline */
+	@SuppressWarnings("rawtypes")
+	private static FilePath cacheDir( AbstractBuild build ) {
+		Node node = build.getBuiltOn();
+		FilePath root = node == null ? null : node.getRootPath();
+		return root == null ? null : AarCache.dir( root );
+	}
+
+
+	// --------------------------------------------------------------------------------------------
+	/** Split the server URL parameter (comma or whitespace separated) into single URLs ending with "/" */
+	static List<String> serverUrls( String urlParam ) {
+		List<String> urls = new ArrayList<String>();
+		for ( String url : urlParam.split( "[,\\s]+" ) ) {
+			if ( url.length() > 0 ) {
+				urls.add( url.endsWith( "/" ) ? url : url + "/" );
+			}
+		}
+		return urls;
+	}
+
+
+	/** Servers, which do not have all AARs deployed with the same content (all servers on force redeploy) */
+	private List<String> changedTargets( List<String> urls, List<AarArtifact> artifacts, BuildListener listener ) {
+		if ( forceRedeploy ) {
+			return urls;
+		}
+		List<String> changed = new ArrayList<String>();
+		for ( String url : urls ) {
+			if ( isDeployed( url, artifacts ) ) {
+				listener.getLogger().println( "[WSO2 Deployer] "+url+" has this AAR "+( deltaDeploy ? "content " : "" )+"deployed already, skip it" );
+			} else {
+				changed.add( url );
+			}
+		}
+		return changed;
+	}
+
+
+	/** AARs, which are not deployed with the same content to all servers */
+	private List<AarArtifact> changedArtifacts( List<String> urls, List<AarArtifact> artifacts ) {
+		if ( forceRedeploy ) {
+			return artifacts;
+		}
+		List<AarArtifact> changed = new ArrayList<AarArtifact>();
+		for ( AarArtifact aar : artifacts ) {
+			for ( String url : urls ) {
+				if ( ! isDeployed( url, Collections.singletonList( aar ) ) ) {
+					changed.add( aar );
+					break;
+				}
+			}
+		}
+		return changed;
+	}
+
+
+	private boolean isDeployed( String url, List<AarArtifact> artifacts ) {
+		for ( AarArtifact aar : artifacts ) {
+			if ( ! aar.digest.equals( getDescriptor().getDeployedDigest( deployedKey( url, aar.targetFileName ) ) ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/** Key of the deployed AAR index */
+	private String deployedKey( String url, String targetFileName ) {
+		return deployedKey( url, serviceHierarchy, targetFileName );
+	}
+
+	static String deployedKey( String url, String hierarchy, String targetFileName ) {
+		return url+"|"+StringUtils.defaultString( hierarchy )+"|"+targetFileName;
+	}
+
+
+	/** Wait until the uploaded services answer on all servers, result is unstable or failure on timeout 
+	 * @param baselines readiness URLs of each server, with their state before the upload 
+	 * @param notReady gets the servers, which are not ready */
+	private Result awaitReadiness( List<Wso2ClusterDeployer.NodeResult> results, Map<String, List<Wso2ReadinessProbe.Baseline>> baselines, 
+			Set<String> notReady, BuildListener listener ) throws InterruptedException {
+		long timeout = getDescriptor().getReadinessTimeoutSec() * 1000L;
+		long interval = getDescriptor().getReadinessPollSec() * 1000L;
+		List<Wso2ReadinessProbe> probes = new ArrayList<Wso2ReadinessProbe>();
+		List<Wso2ClusterDeployer.NodeResult> probedNodes = new ArrayList<Wso2ClusterDeployer.NodeResult>();
+		for ( Wso2ClusterDeployer.NodeResult node : results ) {
+			if ( node.success && ! node.superseded && baselines.containsKey( node.url ) ) {
+				for ( Wso2ReadinessProbe.Baseline baseline : baselines.get( node.url ) ) {
+					probes.add( Wso2ReadinessProbe.start( baseline, timeout, interval ) );
+					probedNodes.add( node );
+				}
+			}
+		}
+		
+		Result result = Result.SUCCESS;
+		for ( int i = 0; i < probes.size(); i++ ) {
+			Wso2ReadinessProbe probe = probes.get( i );
+			Wso2ClusterDeployer.NodeResult node = probedNodes.get( i );
+			long millis = probe.await();
+			if ( millis < 0 ) {
+				listener.error( "[WSO2 Deployer] "+probe.getUrl()+" not ready after "+( timeout / 1000 )+" s ("+probe.getLastStatus()+")" );
+				result = readinessUnstable ? Result.UNSTABLE : Result.FAILURE;
+				notReady.add( node.url );
+			} else {
+				listener.getLogger().println( "[WSO2 Deployer] "+probe.getUrl()+" ready "+millis+" ms after upload" );
+				node.readyMillis = Math.max( node.readyMillis, millis );
+			}
+		}
+		return result;
+	}
+
+
+	/** Get the readiness URLs of the servers with their response before the upload */
+	private Map<String, List<Wso2ReadinessProbe.Baseline>> readinessBaselines( List<String> urls, List<AarArtifact> artifacts, 
+			String hierarchy, BuildListener listener ) throws IOException, InterruptedException {
+		List<String> services = new ArrayList<String>();
+		if ( StringUtils.isBlank( healthUrl ) ) {
+			for ( AarArtifact aar : artifacts ) {
+				// the service names are declared in the services.xml, Axis2 uses the AAR name, if there is none
+				List<String> names = aar.file.act( new AarValidator.ServiceNames() );
+				if ( names.isEmpty() ) {
+					names = Collections.singletonList( StringUtils.removeEnd( aar.targetFileName, ".aar" ) );
+				}
+				services.addAll( names );
+			}
+		}
+		Map<String, List<Wso2ReadinessProbe.Baseline>> baselines = new HashMap<String, List<Wso2ReadinessProbe.Baseline>>();
+		for ( String url : urls ) {
+			List<Wso2ReadinessProbe.Baseline> list = new ArrayList<Wso2ReadinessProbe.Baseline>();
+			if ( StringUtils.isNotBlank( healthUrl ) ) {
+				// one health URL per server
+				list.add( Wso2ReadinessProbe.baseline( new URL( healthUrl.matches( "^[a-zA-Z]+://.*" ) ? 
+						healthUrl : url + StringUtils.removeStart( healthUrl, "/" ) ) ) );
+			} else {
+				String path = StringUtils.strip( StringUtils.defaultString( hierarchy ), "/" );
+				for ( String service : services ) {
+					list.add( Wso2ReadinessProbe.baseline( new URL( url + ( path.length() > 0 ? path + "/" : "" ) + service + "?wsdl" ) ) );
+				}
+			}
+			listener.getLogger().println( "[WSO2 Deployer] Before upload: "+list );
+			baselines.put( url, list );
+		}
+		return baselines;
+	}
+
+
+	/** Rolling deploy waves: the first server as canary, then waves of the configured size */
+	static List<List<String>> waves( List<String> urls, String waveSize, BuildListener listener ) {
+		int size = 1;
+		if ( StringUtils.isNotBlank( waveSize ) ) {
+			try {
+				size = Math.max( 1, Integer.parseInt( waveSize.trim() ) );
+			} catch ( NumberFormatException e ) {
+				listener.getLogger().println( "[WSO2 Deployer] Warning: Invalid wave size '"+waveSize+"', deploy server by server" );
+			}
+		}
+		List<List<String>> waves = new ArrayList<List<String>>();
+		waves.add( new ArrayList<String>( urls.subList( 0, 1 ) ) );
+		for ( int i = 1; i < urls.size(); i += size ) {
+			waves.add( new ArrayList<String>( urls.subList( i, Math.min( urls.size(), i + size ) ) ) );
+		}
+		return waves;
+	}
+
+
+	/** Upload bandwidth limit per server in KB/s, 0 is unlimited */
+	private int rateLimitValue( BuildListener listener ) {
+		if ( StringUtils.isBlank( rateLimitKB ) ) {
+			return 0;
+		}
+		try {
+			return Math.max( 0, Integer.parseInt( rateLimitKB.trim() ) );
+		} catch ( NumberFormatException e ) {
+			listener.getLogger().println( "[WSO2 Deployer] Warning: Invalid rate limit '"+rateLimitKB+"', upload is not limited" );
+			return 0;
+		}
+	}
+
+
+	/** Minimum number of successful uploads, 0 means all servers must succeed */
+	private int quorumValue( BuildListener listener ) {
+		if ( StringUtils.isBlank( quorum ) ) {
+			return 0;
+		}
+		try {
+			return Integer.parseInt( quorum.trim() );
+		} catch ( NumberFormatException e ) {
+			listener.getLogger().println( "[WSO2 Deployer] Warning: Invalid quorum '"+quorum+"', all servers must succeed" );
+			return 0;
+		}
+	}
+
 	// --------------------------------------------------------------------------------------------
 	/** Validate input and get variable values (if set) */
-	private String checkParam( String param, String logName, BuildListener listener ) throws Exception {
+	private String checkParam( String param, String logName, EnvVars env, BuildListener listener ) throws Exception {
 		String result = param;
 		if ( StringUtils.isBlank( param ) ) {
 			listener.error( "[WSO2 Deployer] "+logName+" must be set!" ); 
@@ -178,9 +738,68 @@ public class Wso2AarPublisher extends Recorder {
 	@Extension // This indicates to Jenkins that this is an implementation of an extension point.
 	public static final class DescriptorImpl extends BuildStepDescriptor<Publisher> {
 
+		/** Max. number of concurrent uploads of one deployment to a server list */
+		private int maxParallelUploads = 4;
+		
+		/** Upload threads shared by all deployments */
+		private int uploadThreads = 8;
+		
+		/** Max. number of concurrent uploads to one server, from all deployments */
+		private int maxUploadsPerServer = 2;
+		
+		/** Upload bandwidth of all deployments in KB/s, 0 is unlimited */
+		private int maxUploadRateKB = 0;
+		
+		/** Size of the AAR cache of each node, 0 disables the cache */
+		private int aarCacheSizeMB = 0;
+		
+		/** Max. AAR file size checked by the validation, 0 is unlimited */
+		private int maxAarSizeMB = 0;
+		
+		/** Max. AAR payload of one uploadService request in batch mode */
+		private int maxBatchSizeMB = 50;
+		
+		/** Upload retries */
+		private int uploadAttempts = 3;
+		private int retryBackoffSec = 5;
+		private int retryJitterPercent = 20;
+		
+		/** Max. wait time for the upload response per attempt, 0 is the CXF default */
+		private int receiveTimeoutSec = 0;
+		
+		/** HTTP connection tuning, connect timeout 0 is the CXF default */
+		private int connectTimeoutSec = 0;
+		private boolean keepAlive = true;
+		private boolean tlsSessionReuse = true;
+		
+		/** Wait for the hot deployment */
+		private int readinessTimeoutSec = 120;
+		private int readinessPollSec = 2;
+		
+		/** Max. number of cached SOAP client proxies */
+		private int clientCacheSize = 20;
+		
+		/** Cached SOAP client proxies are dropped after this idle time */
+		private int clientIdleMinutes = 30;
+		
+		/** Hash of the last deployed AAR, key is server URL|service hierarchy|target file name */
+		private Map<String,String> deployedDigests = new HashMap<String,String>();
+		
+		/** Topology: named WSO2 server groups */
+		private List<Wso2ServerGroup> serverGroups = new ArrayList<Wso2ServerGroup>();
+		
+		/** Server groups by name, rebuilt on load and configuration changes */
+		private transient volatile Map<String,Wso2ServerGroup> groupIndex = Collections.emptyMap();
+
+
 		public DescriptorImpl() {
 			super( Wso2AarPublisher.class );
 			load();
+			indexServerGroups();
+			Wso2ClientPool.configure( clientCacheSize, clientIdleMinutes );
+			Wso2UploadEngine.configure( uploadThreads );
+			Wso2ServerScheduler.configure( maxUploadsPerServer );
+			TokenBucket.GLOBAL.setRate( maxUploadRateKB * 1024L );
 		}
 
 		public boolean isApplicable( Class<? extends AbstractProject> aClass ) {
@@ -189,9 +808,16 @@ public class Wso2AarPublisher extends Recorder {
 		}
 
 		@Override
-		public boolean configure( StaplerRequest req, JSONObject json ) throws FormException {
+		public synchronized boolean configure( StaplerRequest req, JSONObject json ) throws FormException {
+			serverGroups = new ArrayList<Wso2ServerGroup>(); // an empty list is not submitted
 			req.bindJSON(this, json);
 			save();
+			indexServerGroups();
+			Wso2ClientPool.configure( clientCacheSize, clientIdleMinutes );
+			Wso2UploadEngine.configure( uploadThreads );
+			Wso2ServerScheduler.configure( maxUploadsPerServer );
+			TokenBucket.GLOBAL.setRate( maxUploadRateKB * 1024L );
+			pruneDeployedDigests( null );
 			return true;
 		}
 
@@ -199,6 +825,237 @@ public class Wso2AarPublisher extends Recorder {
 		public String getDisplayName() {
 			return "Deploy AAR to WSO2 Server";
 		}
+
+		public int getMaxParallelUploads() {
+			return maxParallelUploads;
+		}
+
+		public void setMaxParallelUploads( int maxParallelUploads ) {
+			this.maxParallelUploads = maxParallelUploads;
+		}
+
+		public int getUploadThreads() {
+			return uploadThreads;
+		}
+
+		public void setUploadThreads( int uploadThreads ) {
+			this.uploadThreads = uploadThreads;
+		}
+
+		public int getMaxUploadsPerServer() {
+			return maxUploadsPerServer;
+		}
+
+		public void setMaxUploadsPerServer( int maxUploadsPerServer ) {
+			this.maxUploadsPerServer = maxUploadsPerServer;
+		}
+
+		public int getMaxUploadRateKB() {
+			return maxUploadRateKB;
+		}
+
+		public void setMaxUploadRateKB( int maxUploadRateKB ) {
+			this.maxUploadRateKB = maxUploadRateKB;
+		}
+
+		public int getAarCacheSizeMB() {
+			return aarCacheSizeMB;
+		}
+
+		public void setAarCacheSizeMB( int aarCacheSizeMB ) {
+			this.aarCacheSizeMB = aarCacheSizeMB;
+		}
+
+		public int getMaxAarSizeMB() {
+			return maxAarSizeMB;
+		}
+
+		public void setMaxAarSizeMB( int maxAarSizeMB ) {
+			this.maxAarSizeMB = maxAarSizeMB;
+		}
+
+		public long getMaxAarBytes() {
+			return maxAarSizeMB * 1024L * 1024L;
+		}
+
+		public int getMaxBatchSizeMB() {
+			return maxBatchSizeMB;
+		}
+
+		public void setMaxBatchSizeMB( int maxBatchSizeMB ) {
+			this.maxBatchSizeMB = maxBatchSizeMB;
+		}
+
+		public long getMaxBatchBytes() {
+			return maxBatchSizeMB * 1024L * 1024L;
+		}
+
+		public Wso2RetryPolicy retryPolicy() {
+			return new Wso2RetryPolicy( uploadAttempts, retryBackoffSec * 1000L, retryJitterPercent );
+		}
+
+		public int getUploadAttempts() {
+			return uploadAttempts;
+		}
+
+		public void setUploadAttempts( int uploadAttempts ) {
+			this.uploadAttempts = uploadAttempts;
+		}
+
+		public int getRetryBackoffSec() {
+			return retryBackoffSec;
+		}
+
+		public void setRetryBackoffSec( int retryBackoffSec ) {
+			this.retryBackoffSec = retryBackoffSec;
+		}
+
+		public int getRetryJitterPercent() {
+			return retryJitterPercent;
+		}
+
+		public void setRetryJitterPercent( int retryJitterPercent ) {
+			this.retryJitterPercent = retryJitterPercent;
+		}
+
+		public int getReceiveTimeoutSec() {
+			return receiveTimeoutSec;
+		}
+
+		public void setReceiveTimeoutSec( int receiveTimeoutSec ) {
+			this.receiveTimeoutSec = receiveTimeoutSec;
+		}
+
+		public int getConnectTimeoutSec() {
+			return connectTimeoutSec;
+		}
+
+		public void setConnectTimeoutSec( int connectTimeoutSec ) {
+			this.connectTimeoutSec = connectTimeoutSec;
+		}
+
+		public boolean isKeepAlive() {
+			return keepAlive;
+		}
+
+		public void setKeepAlive( boolean keepAlive ) {
+			this.keepAlive = keepAlive;
+		}
+
+		public boolean isTlsSessionReuse() {
+			return tlsSessionReuse;
+		}
+
+		public void setTlsSessionReuse( boolean tlsSessionReuse ) {
+			this.tlsSessionReuse = tlsSessionReuse;
+		}
+
+		public int getReadinessTimeoutSec() {
+			return readinessTimeoutSec;
+		}
+
+		public void setReadinessTimeoutSec( int readinessTimeoutSec ) {
+			this.readinessTimeoutSec = readinessTimeoutSec;
+		}
+
+		public int getReadinessPollSec() {
+			return readinessPollSec;
+		}
+
+		public void setReadinessPollSec( int readinessPollSec ) {
+			this.readinessPollSec = readinessPollSec;
+		}
+
+		public int getClientCacheSize() {
+			return clientCacheSize;
+		}
+
+		public void setClientCacheSize( int clientCacheSize ) {
+			this.clientCacheSize = clientCacheSize;
+		}
+
+		public List<Wso2ServerGroup> getServerGroups() {
+			return serverGroups;
+		}
+
+		public void setServerGroups( List<Wso2ServerGroup> serverGroups ) {
+			this.serverGroups = serverGroups == null ? new ArrayList<Wso2ServerGroup>() : serverGroups;
+		}
+
+		/** The server group, null if there is none with this name */
+		public Wso2ServerGroup getServerGroup( String name ) {
+			return groupIndex.get( name.trim() );
+		}
+
+		private void indexServerGroups() {
+			Map<String,Wso2ServerGroup> index = new HashMap<String,Wso2ServerGroup>();
+			if ( serverGroups != null ) {
+				for ( Wso2ServerGroup group : serverGroups ) {
+					index.put( group.getName(), group );
+				}
+			}
+			groupIndex = index;
+		}
+
+		public ListBoxModel doFillServerGroupItems() {
+			ListBoxModel items = new ListBoxModel();
+			items.add( "(servers of this job)", "" );
+			for ( Wso2ServerGroup group : serverGroups ) {
+				items.add( group.getName() );
+			}
+			return items;
+		}
+
+		public synchronized String getDeployedDigest( String key ) {
+			return deployedDigests.get( key );
+		}
+
+		/** Remember the deployed AAR hash, the index is persisted with the plugin configuration */
+		public synchronized void setDeployedDigest( String key, String digest ) {
+			if ( ! digest.equals( deployedDigests.put( key, digest ) ) ) {
+				save();
+			}
+		}
+
+		/** 
+		 * Drop the deployed AAR hashes of servers that no job and no server group deploys to any more.
+		 * Nothing is dropped while a job takes its servers from a build parameter.
+		 * @param deleted job being deleted, null if none
+		 */
+		public synchronized void pruneDeployedDigests( Item deleted ) {
+			Set<String> urls = new HashSet<String>();
+			for ( Wso2ServerGroup group : serverGroups ) {
+				urls.addAll( serverUrls( group.getServers() ) );
+			}
+			for ( AbstractProject<?, ?> project : Jenkins.getInstance().getAllItems( AbstractProject.class ) ) {
+				Wso2AarPublisher publisher = project.getPublishersList().get( Wso2AarPublisher.class );
+				if ( project == deleted || publisher == null || publisher.wso2URL == null ) {
+					continue;
+				} else if ( publisher.wso2URL.contains( "$" ) ) {
+					return;
+				}
+				urls.addAll( serverUrls( publisher.wso2URL ) );
+			}
+			boolean removed = false;
+			for ( Iterator<String> keys = deployedDigests.keySet().iterator(); keys.hasNext(); ) {
+				String key = keys.next();
+				if ( ! urls.contains( key.substring( 0, key.indexOf( '|' ) ) ) ) {
+					keys.remove();
+					removed = true;
+				}
+			}
+			if ( removed ) {
+				save();
+			}
+		}
+
+		public int getClientIdleMinutes() {
+			return clientIdleMinutes;
+		}
+
+		public void setClientIdleMinutes( int clientIdleMinutes ) {
+			this.clientIdleMinutes = clientIdleMinutes;
+		}
 	}
 
 
@@ -0,0 +1,58 @@
+package org.mh.jenkins.wso2;
+
+import hudson.FilePath.FileCallable;
+import hudson.model.BuildListener;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+
+/**
+ * Runs the upload on the node holding the AAR file, so the artifact goes straight
+ * from the agent to the WSO2 servers and is not streamed through the master.
+ *
+ * Only the node results and the log lines are sent back to the master.
+ *
+ * @author mh
+ *
+ */
+public class Wso2AgentUpload implements FileCallable<List<Wso2ClusterDeployer.NodeResult>> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<String> urls;
+	private final Wso2ClientConfig settings;
+	private final List<AarArtifact> artifacts;
+	private final String serviceHierarchy;
+	private final int maxParallel;
+	private final long maxBatchBytes;
+	private final int maxPerServer;
+	private final int maxRateKB;
+	private final BuildListener listener;
+
+	public Wso2AgentUpload( List<String> urls, Wso2ClientConfig settings, List<AarArtifact> artifacts, String serviceHierarchy,
+			int maxParallel, long maxBatchBytes, int maxPerServer, int maxRateKB, BuildListener listener ) {
+		this.urls = urls;
+		this.settings = settings;
+		this.artifacts = artifacts;
+		this.serviceHierarchy = serviceHierarchy;
+		this.maxParallel = maxParallel;
+		this.maxBatchBytes = maxBatchBytes;
+		this.maxPerServer = maxPerServer;
+		this.maxRateKB = maxRateKB;
+		this.listener = listener;
+	}
+
+	/** @param f one of the AAR files, the artifacts are local files on this node */
+	public List<Wso2ClusterDeployer.NodeResult> invoke( File f, VirtualChannel channel ) throws IOException, InterruptedException {
+		listener.getLogger().println( "[WSO2 Deployer] Upload from agent, files "+artifacts );
+		// the server and bandwidth limits apply to the uploads of this agent JVM
+		Wso2ServerScheduler.configure( maxPerServer );
+		TokenBucket.GLOBAL.setRate( maxRateKB * 1024L );
+		Wso2ClusterDeployer deployer = new Wso2ClusterDeployer( maxParallel, maxBatchBytes, listener );
+		return deployer.deploy( urls, settings, artifacts, serviceHierarchy );
+	}
+
+}
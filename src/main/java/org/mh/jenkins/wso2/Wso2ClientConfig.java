@@ -0,0 +1,179 @@
+package org.mh.jenkins.wso2;
+
+import java.io.Serializable;
+
+
+/**
+ * Connection settings of a WSO2 admin service client.
+ *
+ * Immutable, used as key of the {@link Wso2ClientPool}.
+ *
+ * @author mh
+ *
+ */
+public class Wso2ClientConfig implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String serviceUrl;
+	private final String adminUser;
+	private final String adminPwd;
+	private final boolean mtomEnabled;
+	private final boolean compressed;
+	private final int receiveTimeoutSec;
+	private final int connectTimeoutSec;
+	private final boolean keepAlive;
+	private final boolean tlsSessionReuse;
+	/** not part of the pool key, it doesn't change the proxy */
+	private final Wso2RetryPolicy retryPolicy;
+	/** not part of the pool key, upload bandwidth limit per server in KB/s, 0 is unlimited */
+	private final int rateLimitKB;
+
+	/**
+	 * @param serviceUrl WSO2 services URL, ending with "/"
+	 * @param mtomEnabled send the AAR as streamed MTOM attachment instead of inline base64
+	 * @param compressed gzip the request body (Content-Encoding)
+	 */
+	public Wso2ClientConfig( String serviceUrl, String adminUser, String adminPwd, boolean mtomEnabled, boolean compressed ) {
+		this( serviceUrl, adminUser, adminPwd, mtomEnabled, compressed, 0, 0, true, true, Wso2RetryPolicy.NONE, 0 );
+	}
+
+	private Wso2ClientConfig( String serviceUrl, String adminUser, String adminPwd, boolean mtomEnabled, boolean compressed, 
+			int receiveTimeoutSec, int connectTimeoutSec, boolean keepAlive, boolean tlsSessionReuse, 
+			Wso2RetryPolicy retryPolicy, int rateLimitKB ) {
+		this.serviceUrl = serviceUrl;
+		this.adminUser = adminUser;
+		this.adminPwd = adminPwd;
+		this.mtomEnabled = mtomEnabled;
+		this.compressed = compressed;
+		this.receiveTimeoutSec = receiveTimeoutSec;
+		this.connectTimeoutSec = connectTimeoutSec;
+		this.keepAlive = keepAlive;
+		this.tlsSessionReuse = tlsSessionReuse;
+		this.retryPolicy = retryPolicy;
+		this.rateLimitKB = rateLimitKB;
+	}
+
+	/** Same settings for another server */
+	public Wso2ClientConfig withUrl( String url ) {
+		return new Wso2ClientConfig( url, adminUser, adminPwd, mtomEnabled, compressed, receiveTimeoutSec, 
+				connectTimeoutSec, keepAlive, tlsSessionReuse, retryPolicy, rateLimitKB );
+	}
+
+	/** Same settings with retries
+	 * @param receiveTimeoutSec max. wait time for the server response per attempt, 0 is the CXF default */
+	public Wso2ClientConfig withRetry( Wso2RetryPolicy policy, int receiveTimeoutSec ) {
+		return new Wso2ClientConfig( serviceUrl, adminUser, adminPwd, mtomEnabled, compressed, receiveTimeoutSec, 
+				connectTimeoutSec, keepAlive, tlsSessionReuse, policy, rateLimitKB );
+	}
+
+	/** Same settings with HTTP connection tuning
+	 * @param connectTimeoutSec max. wait time for the connection, 0 is the CXF default 
+	 * @param keepAlive keep the connection open for later uploads to the host
+	 * @param tlsSessionReuse share the TLS session cache of all clients, see TimingSSLSocketFactory */
+	public Wso2ClientConfig withHttp( int connectTimeoutSec, boolean keepAlive, boolean tlsSessionReuse ) {
+		return new Wso2ClientConfig( serviceUrl, adminUser, adminPwd, mtomEnabled, compressed, receiveTimeoutSec, 
+				connectTimeoutSec, keepAlive, tlsSessionReuse, retryPolicy, rateLimitKB );
+	}
+
+	/** Same settings with an upload bandwidth limit per server
+	 * @param rateLimitKB KB/s, 0 is unlimited */
+	public Wso2ClientConfig withRateLimit( int rateLimitKB ) {
+		return new Wso2ClientConfig( serviceUrl, adminUser, adminPwd, mtomEnabled, compressed, receiveTimeoutSec, 
+				connectTimeoutSec, keepAlive, tlsSessionReuse, retryPolicy, rateLimitKB );
+	}
+
+	public String getServiceUrl() {
+		return serviceUrl;
+	}
+
+	public String getAdminUser() {
+		return adminUser;
+	}
+
+	public String getAdminPwd() {
+		return adminPwd;
+	}
+
+	public boolean isMtomEnabled() {
+		return mtomEnabled;
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	public int getReceiveTimeoutSec() {
+		return receiveTimeoutSec;
+	}
+
+	public int getConnectTimeoutSec() {
+		return connectTimeoutSec;
+	}
+
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	public boolean isTlsSessionReuse() {
+		return tlsSessionReuse;
+	}
+
+	public Wso2RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	public int getRateLimitKB() {
+		return rateLimitKB;
+	}
+
+	/** TLS is set up for https URLs only */
+	public boolean isTls() {
+		return serviceUrl.toLowerCase().startsWith( "https:" );
+	}
+
+	@Override
+	public int hashCode() {
+		int result = serviceUrl.hashCode();
+		result = 31 * result + ( adminUser == null ? 0 : adminUser.hashCode() );
+		result = 31 * result + ( adminPwd == null ? 0 : adminPwd.hashCode() );
+		result = 31 * result + ( mtomEnabled ? 1 : 0 );
+		result = 31 * result + ( compressed ? 1 : 0 );
+		result = 31 * result + receiveTimeoutSec;
+		result = 31 * result + connectTimeoutSec;
+		result = 31 * result + ( keepAlive ? 1 : 0 );
+		result = 31 * result + ( tlsSessionReuse ? 1 : 0 );
+		return result;
+	}
+
+	@Override
+	public boolean equals( Object obj ) {
+		if ( this == obj ) {
+			return true;
+		}
+		if ( !( obj instanceof Wso2ClientConfig ) ) {
+			return false;
+		}
+		Wso2ClientConfig other = (Wso2ClientConfig) obj;
+		return serviceUrl.equals( other.serviceUrl )
+				&& eq( adminUser, other.adminUser )
+				&& eq( adminPwd, other.adminPwd )
+				&& mtomEnabled == other.mtomEnabled
+				&& compressed == other.compressed
+				&& receiveTimeoutSec == other.receiveTimeoutSec
+				&& connectTimeoutSec == other.connectTimeoutSec
+				&& keepAlive == other.keepAlive
+				&& tlsSessionReuse == other.tlsSessionReuse;
+	}
+
+	private static boolean eq( Object a, Object b ) {
+		return a == null ? b == null : a.equals( b );
+	}
+
+	/** no password here, it ends up in build logs */
+	@Override
+	public String toString() {
+		return adminUser+"@"+serviceUrl+( mtomEnabled ? " (MTOM)" : "" )+( compressed ? " (gzip)" : "" );
+	}
+
+}
@@ -0,0 +1,199 @@
+package org.mh.jenkins.wso2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cxf.frontend.ClientProxy;
+import org.wso2.carbon.aarservices.ServiceUploaderPortType;
+
+
+/**
+ * JVM wide cache of SOAP client proxies, keyed by the client settings.
+ *
+ * Creating a proxy builds the service model and JAXB context and sets up the
+ * HTTP conduit, so later deployments to the same server reuse a warm proxy.
+ * The cache is bounded in size (least recently used entries go first) and
+ * drops proxies not used for the idle time.
+ *
+ * Uploads lease a proxy and release it when done. Dropped proxies (evicted or
+ * invalidated after a transport error) are destroyed, when no upload holds them any more.
+ *
+ * @author mh
+ *
+ */
+public final class Wso2ClientPool {
+
+	private static final class Entry {
+		final ServiceUploaderPortType proxy;
+		long lastUsed;
+		/** number of uploads holding the proxy */
+		int leases;
+		/** not in the cache any more */
+		boolean dropped;
+
+		Entry( ServiceUploaderPortType proxy ) {
+			this.proxy = proxy;
+		}
+	}
+
+	/** A proxy taken from the pool, release it after the upload */
+	public static final class Lease {
+		public final ServiceUploaderPortType proxy;
+		private final Wso2ClientConfig config;
+		private final Entry entry;
+		private boolean released;
+
+		private Lease( Wso2ClientConfig config, Entry entry ) {
+			this.config = config;
+			this.entry = entry;
+			this.proxy = entry.proxy;
+		}
+
+		/** Give the proxy back to the pool */
+		public void release() {
+			synchronized ( Wso2ClientPool.class ) {
+				if ( released ) {
+					return;
+				}
+				released = true;
+				entry.leases--;
+				if ( ! entry.dropped || entry.leases > 0 ) {
+					return;
+				}
+			}
+			destroy( entry );
+		}
+
+		/** Drop the proxy from the pool, e.g. after transport errors, it is destroyed when all uploads released it */
+		public void invalidate() {
+			synchronized ( Wso2ClientPool.class ) {
+				if ( cache.get( config ) == entry ) {
+					cache.remove( config );
+				}
+				entry.dropped = true;
+			}
+		}
+	}
+
+	private static int maxSize = 20;
+	private static long idleMillis = TimeUnit.MINUTES.toMillis( 30 );
+
+	/** access ordered, so iteration starts with the least recently used */
+	private static final LinkedHashMap<Wso2ClientConfig, Entry> cache =
+			new LinkedHashMap<Wso2ClientConfig, Entry>( 16, 0.75f, true ) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry( Map.Entry<Wso2ClientConfig, Entry> eldest ) {
+			if ( size() > maxSize ) {
+				drop( eldest.getValue() );
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/** dropped entries without leases, destroyed outside the lock */
+	private static final List<Entry> unused = new ArrayList<Entry>();
+
+	private Wso2ClientPool() {
+	}
+
+
+	/** Set cache limits (from the global plugin configuration) */
+	public static void configure( int size, int idleMinutes ) {
+		synchronized ( Wso2ClientPool.class ) {
+			maxSize = Math.max( 1, size );
+			idleMillis = TimeUnit.MINUTES.toMillis( Math.max( 1, idleMinutes ) );
+			evictIdle( System.currentTimeMillis() );
+		}
+		destroyUnused();
+	}
+
+
+	/** Get a cached proxy for the settings or create a new one */
+	public static Lease acquire( Wso2ClientConfig config ) {
+		try {
+			synchronized ( Wso2ClientPool.class ) {
+				long now = System.currentTimeMillis();
+				evictIdle( now );
+				Entry entry = cache.get( config );
+				if ( entry != null ) {
+					return lease( config, entry );
+				}
+			}
+			// created outside the lock, this is the slow part
+			Entry created = new Entry( Wso2AarDeployClient.createProxy( config ) );
+			synchronized ( Wso2ClientPool.class ) {
+				Entry entry = cache.get( config );
+				if ( entry == null ) {
+					entry = created;
+					cache.put( config, entry );
+				} else {
+					// another upload was faster
+					created.dropped = true;
+					unused.add( created );
+				}
+				return lease( config, entry );
+			}
+		} finally {
+			destroyUnused();
+		}
+	}
+
+
+	public static synchronized int size() {
+		return cache.size();
+	}
+
+
+	private static Lease lease( Wso2ClientConfig config, Entry entry ) {
+		entry.lastUsed = System.currentTimeMillis();
+		entry.leases++;
+		return new Lease( config, entry );
+	}
+
+
+	private static void evictIdle( long now ) {
+		Iterator<Entry> it = cache.values().iterator();
+		while ( it.hasNext() ) {
+			Entry entry = it.next();
+			if ( entry.leases == 0 && now - entry.lastUsed > idleMillis ) {
+				it.remove();
+				drop( entry );
+			}
+		}
+	}
+
+
+	/** Remove from the cache, called with the lock held */
+	private static void drop( Entry entry ) {
+		entry.dropped = true;
+		if ( entry.leases == 0 ) {
+			unused.add( entry );
+		}
+	}
+
+
+	private static void destroyUnused() {
+		List<Entry> entries;
+		synchronized ( Wso2ClientPool.class ) {
+			entries = new ArrayList<Entry>( unused );
+			unused.clear();
+		}
+		for ( Entry entry : entries ) {
+			destroy( entry );
+		}
+	}
+
+
+	/** Close the HTTP conduit of the proxy */
+	private static void destroy( Entry entry ) {
+		ClientProxy.getClient( entry.proxy ).destroy();
+	}
+
+}
@@ -0,0 +1,478 @@
+package org.mh.jenkins.wso2;
+
+import hudson.FilePath;
+import hudson.model.BuildListener;
+import hudson.model.Result;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+import org.wso2.carbon.aarservices.xsd.AARServiceData;
+
+
+/**
+ * Uploads AARs to a list of WSO2 servers in parallel.
+ *
+ * The SOAP request data is created once and shared by all uploads, 
+ * which run on the threads of the {@link Wso2UploadEngine}, limited per server by the {@link Wso2ServerScheduler}.
+ * Several AARs are sent in as few uploadService requests as the max. batch size allows.
+ * Inline (non MTOM) requests hold the AAR content, they are built and sent one batch at a time.
+ *
+ * @author mh
+ *
+ */
+public class Wso2ClusterDeployer {
+
+	/** Upload outcome of one WSO2 node */
+	@ExportedBean( defaultVisibility = 2 )
+	public static class NodeResult implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		public final String url;
+		public final boolean success;
+		public final long millis;
+		public final String message;
+		/** time from upload until the service was ready, -1 if not checked or not ready */
+		public long readyMillis = -1;
+		/** time to build the (shared) request data */
+		public long requestMillis;
+		/** bytes sent on the wire */
+		public long bytesSent;
+		/** see TransferStats */
+		public long writeMillis;
+		public long responseMillis;
+		/** time waiting for an upload slot of the server */
+		public long queueMillis;
+		/** not sent, a newer upload of the same AARs to this server was queued, success is its outcome */
+		public boolean superseded;
+
+		public NodeResult( String url, boolean success, long millis, String message ) {
+			this.url = url;
+			this.success = success;
+			this.millis = millis;
+			this.message = message;
+		}
+
+		// getters for the jelly views and the remote API
+
+		@Exported
+		public String getUrl() {
+			return url;
+		}
+
+		@Exported
+		public boolean isSuccess() {
+			return success;
+		}
+
+		@Exported
+		public String getMessage() {
+			return message;
+		}
+
+		@Exported
+		public long getMillis() {
+			return millis;
+		}
+
+		@Exported
+		public long getReadyMillis() {
+			return readyMillis;
+		}
+
+		@Exported
+		public long getRequestMillis() {
+			return requestMillis;
+		}
+
+		@Exported
+		public long getBytesSent() {
+			return bytesSent;
+		}
+
+		@Exported
+		public long getWriteMillis() {
+			return writeMillis;
+		}
+
+		@Exported
+		public long getResponseMillis() {
+			return responseMillis;
+		}
+
+		@Exported
+		public long getQueueMillis() {
+			return queueMillis;
+		}
+
+		@Exported
+		public boolean isSuperseded() {
+			return superseded;
+		}
+	}
+
+	private final int maxParallel;
+	private final long maxBatchBytes;
+	private final BuildListener listener;
+	/** local copies of remote AARs, deleted by close() */
+	private final List<File> spooled = new ArrayList<File>();
+
+	/** @param maxParallel upper bound for concurrent uploads 
+	 *  @param maxBatchBytes max. AAR payload of one uploadService request */
+	public Wso2ClusterDeployer( int maxParallel, long maxBatchBytes, BuildListener listener ) {
+		this.maxParallel = Math.max( 1, maxParallel );
+		this.maxBatchBytes = maxBatchBytes;
+		this.listener = listener;
+	}
+
+
+	/** Upload the AARs to all servers and wait for the results (in URL order).
+	 * Remote AARs of MTOM uploads are spooled, if the caller didn't (see {@link #spool(List)}).
+	 * @param settings client settings, the URL is replaced by each server URL */
+	public List<NodeResult> deploy( List<String> urls, final Wso2ClientConfig settings,
+			List<AarArtifact> artifacts, String serviceHierarchy ) throws IOException, InterruptedException {
+
+		boolean mtom = settings.isMtomEnabled();
+		List<List<AarArtifact>> plan = planBatches( mtom ? spool( artifacts ) : artifacts, mtom );
+		if ( mtom ) {
+			// attachments are streamed from the files, so the requests of all batches are built up front
+			long requestStart = System.currentTimeMillis();
+			List<List<AARServiceData>> batches = new ArrayList<List<AARServiceData>>();
+			for ( List<AarArtifact> batch : plan ) {
+				batches.add( requestData( batch, serviceHierarchy, true ) );
+			}
+			long requestMillis = System.currentTimeMillis() - requestStart;
+			return deploy( urls, settings, batches, requestMillis, uploadKey( artifacts, serviceHierarchy ) );
+		}
+
+		// inline content is held in the heap: build one batch, send it to all servers, then build the next
+		Map<String, NodeResult> results = new LinkedHashMap<String, NodeResult>();
+		for ( List<AarArtifact> batch : plan ) {
+			List<String> pending = new ArrayList<String>();
+			for ( String url : urls ) {
+				if ( ! results.containsKey( url ) || results.get( url ).success ) {
+					pending.add( url );
+				}
+			}
+			if ( pending.isEmpty() ) {
+				break;
+			}
+			long requestStart = System.currentTimeMillis();
+			List<AARServiceData> data = requestData( batch, serviceHierarchy, false );
+			long requestMillis = System.currentTimeMillis() - requestStart;
+			for ( NodeResult node : deploy( pending, settings, Collections.singletonList( data ), requestMillis, 
+					uploadKey( batch, serviceHierarchy ) ) ) {
+				results.put( node.url, results.containsKey( node.url ) ? add( results.get( node.url ), node ) : node );
+			}
+		}
+		List<NodeResult> list = new ArrayList<NodeResult>();
+		for ( String url : urls ) {
+			list.add( results.get( url ) );
+		}
+		return list;
+	}
+
+
+	/** Delete the local copies of remote AARs, the deployer must not be used afterwards */
+	public void close() {
+		for ( File f : spooled ) {
+			f.delete();
+		}
+		spooled.clear();
+	}
+
+
+	/** 
+	 * Upload the request batches to the servers. The uploads are queued per server (see {@link Wso2ServerScheduler}),
+	 * uploads with a server slot are handed to the upload engine by this (the build's) thread.
+	 */
+	private List<NodeResult> deploy( List<String> urls, Wso2ClientConfig settings, List<List<AARServiceData>> batches, 
+			long requestMillis, String uploadKey ) throws InterruptedException {
+
+		// started and finished uploads, processed on this thread, so upload engine threads never block
+		BlockingQueue<Runnable> events = new LinkedBlockingQueue<Runnable>();
+		List<NodeUpload> uploads = new ArrayList<NodeUpload>();
+		boolean done = false;
+		try {
+			int submitted = 0;
+			while ( submitted < urls.size() ) {
+				// limits this deployment's share of the upload engine
+				while ( uploads.size() < urls.size() && running( uploads ) < maxParallel ) {
+					NodeUpload upload = new NodeUpload( urls.get( uploads.size() ), settings, batches, requestMillis, events );
+					uploads.add( upload );
+					upload.ticket = Wso2ServerScheduler.enqueue( upload.url, uploadKey, upload );
+				}
+				Runnable event = events.take();
+				event.run();
+				if ( event instanceof NodeUpload.Submit ) {
+					submitted++;
+				}
+			}
+
+			List<NodeResult> results = new ArrayList<NodeResult>();
+			for ( NodeUpload upload : uploads ) {
+				try {
+					results.add( upload.future.get() );
+				} catch ( ExecutionException e ) {
+					results.add( new NodeResult( upload.url, false, 0, String.valueOf( e.getCause() ) ) );
+				}
+			}
+			done = true;
+			return results;
+		} finally {
+			if ( ! done ) {
+				for ( NodeUpload upload : uploads ) {
+					upload.future.cancel( true );
+					if ( upload.ticket != null ) {
+						upload.ticket.cancel();
+					}
+				}
+			}
+		}
+	}
+
+
+	private static int running( List<NodeUpload> uploads ) {
+		int running = 0;
+		for ( NodeUpload upload : uploads ) {
+			if ( ! upload.finished ) {
+				running++;
+			}
+		}
+		return running;
+	}
+
+
+	/** Upload of all request batches to one server */
+	private final class NodeUpload implements Callable<NodeResult>, Wso2ServerScheduler.Start {
+		final String url;
+		final Wso2ClientConfig settings;
+		final List<List<AARServiceData>> batches;
+		final long requestMillis;
+		final BlockingQueue<Runnable> events;
+		final FutureTask<NodeResult> future = new FutureTask<NodeResult>( this );
+		volatile Wso2ServerScheduler.Ticket ticket;
+		/** set on the build thread */
+		boolean finished;
+
+		NodeUpload( String url, Wso2ClientConfig settings, List<List<AARServiceData>> batches, long requestMillis, 
+				BlockingQueue<Runnable> events ) {
+			this.url = url;
+			this.settings = settings;
+			this.batches = batches;
+			this.requestMillis = requestMillis;
+			this.events = events;
+		}
+
+		/** Got a server slot or was superseded, submit it on the build thread */
+		public void start( Wso2ServerScheduler.Ticket ticket ) {
+			this.ticket = ticket;
+			events.add( new Submit() );
+		}
+
+		final class Submit implements Runnable {
+			public void run() {
+				if ( ticket.isSuperseded() ) {
+					future.run(); // no upload, just the result
+				} else {
+					Wso2UploadEngine.execute( future );
+				}
+			}
+		}
+
+		public NodeResult call() {
+			boolean success = false;
+			try {
+				if ( ticket.isSuperseded() ) {
+					// the outcome of the newer upload of the same AARs
+					NodeResult result = new NodeResult( url, ticket.isNewerSuccess(), 0, 
+							"superseded by a newer upload, which "+( ticket.isNewerSuccess() ? "succeeded" : "failed" ) );
+					result.superseded = true;
+					result.queueMillis = ticket.getWaitMillis();
+					return result;
+				}
+				listener.getLogger().println( "[WSO2 Deployer] "+url+" waited "+ticket.getWaitMillis()+" ms for an upload slot" );
+				NodeResult result = uploadNode( url, settings, batches, requestMillis );
+				result.queueMillis = ticket.getWaitMillis();
+				success = result.success;
+				return result;
+			} finally {
+				ticket.release( success );
+				events.add( new Runnable() {
+					public void run() {
+						finished = true;
+					}
+				});
+			}
+		}
+	}
+
+
+	private NodeResult uploadNode( String url, Wso2ClientConfig settings, List<List<AARServiceData>> batches, long requestMillis ) {
+		long start = System.currentTimeMillis();
+		Wso2AarDeployClient deployer = null;
+		NodeResult result;
+		try {
+			deployer = new Wso2AarDeployClient( settings.withUrl( url ), listener );
+			boolean ok = true;
+			for ( List<AARServiceData> batch : batches ) {
+				if ( ! deployer.uploadAAR( batch, batchName( batch ) ) ) {
+					ok = false;
+					break;
+				}
+			}
+			result = new NodeResult( url, ok, System.currentTimeMillis() - start, ok ? "OK" : "upload failed" );
+		} catch ( RuntimeException e ) {
+			result = new NodeResult( url, false, System.currentTimeMillis() - start, e.getMessage() );
+		}
+		result.requestMillis = requestMillis;
+		if ( deployer != null ) {
+			deployer.close();
+			TransferStats transfer = deployer.getTransferTotals();
+			result.bytesSent = transfer.wireBytes.get();
+			result.writeMillis = transfer.writeMillis.get();
+			result.responseMillis = transfer.responseMillis.get();
+		}
+		return result;
+	}
+
+
+	/** 
+	 * Pack the AARs into uploadService requests, each one below the max. batch size, 
+	 * only an AAR exceeding the limit gets a request of its own.
+	 * Inline base64 content counts with 4/3 of the file size.
+	 */
+	List<List<AarArtifact>> planBatches( List<AarArtifact> artifacts, boolean mtomEnabled ) {
+		List<List<AarArtifact>> batches = new ArrayList<List<AarArtifact>>();
+		List<AarArtifact> batch = new ArrayList<AarArtifact>();
+		long batchBytes = 0;
+		for ( AarArtifact aar : artifacts ) {
+			long payload = mtomEnabled ? aar.size : aar.size * 4 / 3;
+			if ( ! batch.isEmpty() && batchBytes + payload > maxBatchBytes ) {
+				batches.add( batch );
+				batch = new ArrayList<AarArtifact>();
+				batchBytes = 0;
+			}
+			batch.add( aar );
+			batchBytes += payload;
+		}
+		batches.add( batch );
+		if ( batches.size() > 1 || artifacts.size() > 1 ) {
+			listener.getLogger().println( "[WSO2 Deployer] "+artifacts.size()+" AARs packed into "+batches.size()+" upload request(s)" );
+		}
+		return batches;
+	}
+
+
+	/** The request data of one batch, inline content is read into memory */
+	List<AARServiceData> requestData( List<AarArtifact> batch, String serviceHierarchy, boolean mtomEnabled ) throws IOException {
+		List<AARServiceData> data = new ArrayList<AARServiceData>();
+		for ( AarArtifact aar : batch ) {
+			data.addAll( Wso2AarDeployClient.creRequestData( 
+					new FilePathDataSource( aar.file, aar.targetFileName ), aar.targetFileName, serviceHierarchy, mtomEnabled, listener ) );
+		}
+		return data;
+	}
+
+
+	/** Sum up the results of two batches sent to a server */
+	private static NodeResult add( NodeResult total, NodeResult batch ) {
+		NodeResult sum = new NodeResult( total.url, total.success && batch.success, total.millis + batch.millis, 
+				batch.success ? total.message : batch.message );
+		sum.requestMillis = total.requestMillis + batch.requestMillis;
+		sum.bytesSent = total.bytesSent + batch.bytesSent;
+		sum.writeMillis = total.writeMillis + batch.writeMillis;
+		sum.responseMillis = total.responseMillis + batch.responseMillis;
+		sum.queueMillis = total.queueMillis + batch.queueMillis;
+		sum.superseded = total.superseded || batch.superseded;
+		return sum;
+	}
+
+
+	/** 
+	 * Copy AARs of other nodes to a local temp file, so the MTOM attachment of each server, 
+	 * each retry and each wave is read from disk and the AAR is read only once over remoting.
+	 * Local AARs are returned as they are. The copies are deleted by {@link #close()}.
+	 */
+	public List<AarArtifact> spool( List<AarArtifact> artifacts ) throws IOException, InterruptedException {
+		List<AarArtifact> local = new ArrayList<AarArtifact>();
+		for ( AarArtifact aar : artifacts ) {
+			if ( aar.file.isRemote() ) {
+				File tmp = File.createTempFile( "wso2-", ".aar" );
+				spooled.add( tmp );
+				aar.file.copyTo( new FilePath( tmp ) );
+				listener.getLogger().println( "[WSO2 Deployer] Copied "+aar.targetFileName+" from "+aar.file.getRemote()+" to "+tmp );
+				aar = new AarArtifact( new FilePath( tmp ), aar.targetFileName, aar.size, aar.digest );
+			}
+			local.add( aar );
+		}
+		return local;
+	}
+
+
+	/** Uploads with the same key replace each other on a server */
+	private static String uploadKey( List<AarArtifact> artifacts, String serviceHierarchy ) {
+		StringBuilder key = new StringBuilder( serviceHierarchy == null ? "" : serviceHierarchy );
+		for ( AarArtifact aar : artifacts ) {
+			key.append( '|' ).append( aar.targetFileName );
+		}
+		return key.toString();
+	}
+
+
+	private static String batchName( List<AARServiceData> batch ) {
+		StringBuilder name = new StringBuilder();
+		for ( AARServiceData data : batch ) {
+			if ( name.length() > 0 ) {
+				name.append( ", " );
+			}
+			name.append( data.getFileName().getValue() );
+		}
+		return name.toString();
+	}
+
+
+	/** Log the per node results */
+	public void report( List<NodeResult> results ) {
+		for ( NodeResult node : results ) {
+			listener.getLogger().println( "[WSO2 Deployer] "+ ( node.success ? "OK    " : "FAILED" )
+					+" "+node.url+" ("+node.millis+" ms) "+node.message );
+		}
+	}
+
+
+	/**
+	 * Decide the build result: all nodes OK is a success,
+	 * at least <tt>quorum</tt> successful nodes is unstable, everything else a failure.
+	 * @param upToDate number of nodes skipped, because they have the AAR already
+	 * @param quorum minimum number of successful nodes, 0 means all must succeed
+	 */
+	public static Result buildResult( List<NodeResult> results, int upToDate, int quorum ) {
+		int ok = upToDate;
+		for ( NodeResult node : results ) {
+			if ( node.success ) {
+				ok++;
+			}
+		}
+		if ( ok == results.size() + upToDate ) {
+			return Result.SUCCESS;
+		} else if ( quorum > 0 && ok >= quorum ) {
+			return Result.UNSTABLE;
+		}
+		return Result.FAILURE;
+	}
+
+}
@@ -0,0 +1,437 @@
+package org.mh.jenkins.wso2;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Api;
+import hudson.model.Computer;
+import hudson.model.EnvironmentContributingAction;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.RunAction;
+import hudson.util.StreamBuildListener;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+
+/**
+ * Deployment phase timings and per server results of a build.
+ *
+ * The results are available to scripts via the remote API (<tt>wso2-deploy/api/json</tt>)
+ * and to later build steps as environment variables.
+ *
+ * The deployment state of each server and AAR is kept with the build. If uploads failed, 
+ * the AARs are kept in the build directory and can be sent again to the failed servers only.
+ *
+ * @author mh
+ *
+ */
+@ExportedBean
+public class Wso2DeployAction implements EnvironmentContributingAction, RunAction {
+
+	/** Deployment state of one AAR on one server */
+	@ExportedBean( defaultVisibility = 2 )
+	public static class TargetState implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		public final String url;
+		public final String targetFileName;
+		public final String digest;
+		/** digest in the deployed AAR index before the upload, null if there was none */
+		public final String previousDigest;
+		public boolean success;
+
+		public TargetState( String url, String targetFileName, String digest, String previousDigest, boolean success ) {
+			this.url = url;
+			this.targetFileName = targetFileName;
+			this.digest = digest;
+			this.previousDigest = previousDigest;
+			this.success = success;
+		}
+
+		@Exported
+		public String getUrl() {
+			return url;
+		}
+
+		@Exported
+		public String getTargetFileName() {
+			return targetFileName;
+		}
+
+		@Exported
+		public String getDigest() {
+			return digest;
+		}
+
+		@Exported
+		public String getPreviousDigest() {
+			return previousDigest;
+		}
+
+		@Exported
+		public boolean isSuccess() {
+			return success;
+		}
+	}
+
+	/** Directory of the AARs kept for retries, in the build directory */
+	private static final String KEPT_AARS = "wso2-aar";
+	/** Max. number of builds of a job keeping their AARs */
+	private static final int MAX_KEPT_BUILDS = 3;
+	private static final String RETRY_LOG = "wso2-retry.log";
+
+	/** phase name -> duration in ms, in execution order */
+	private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+
+	private final List<Wso2ClusterDeployer.NodeResult> nodes = new ArrayList<Wso2ClusterDeployer.NodeResult>();
+
+	private Result result;
+	/** servers, which had the AARs already, they count for the quorum */
+	private int upToDate;
+
+	/** sha256:&lt;hex&gt; of the AARs in the AAR cache */
+	private List<String> aarDigests = new ArrayList<String>();
+
+	private List<TargetState> targets = new ArrayList<TargetState>();
+	private String serviceHierarchy;
+
+	private transient AbstractBuild<?, ?> build;
+	private transient volatile boolean retrying;
+
+	public String getIconFileName() {
+		return "graph.gif";
+	}
+
+	public String getDisplayName() {
+		return "WSO2 Deployment";
+	}
+
+	public String getUrlName() {
+		return "wso2-deploy";
+	}
+
+	/** Add the duration to the phase */
+	public synchronized void addPhase( String phase, long millis ) {
+		Long before = phases.get( phase );
+		phases.put( phase, before == null ? millis : before + millis );
+	}
+
+	public synchronized Map<String, Long> getPhases() {
+		return new LinkedHashMap<String, Long>( phases );
+	}
+
+	public synchronized void addNodes( List<Wso2ClusterDeployer.NodeResult> results ) {
+		nodes.addAll( results );
+	}
+
+	@Exported
+	public synchronized List<Wso2ClusterDeployer.NodeResult> getNodes() {
+		return new ArrayList<Wso2ClusterDeployer.NodeResult>( nodes );
+	}
+
+	public synchronized void setResult( Result result ) {
+		this.result = result;
+	}
+
+	public synchronized void setUpToDate( int upToDate ) {
+		this.upToDate = upToDate;
+	}
+
+	public synchronized int getUpToDate() {
+		return upToDate;
+	}
+
+	/** Deployment result, null while running */
+	@Exported
+	public synchronized String getResult() {
+		return result == null ? null : result.toString();
+	}
+
+	/** Sum of all phases */
+	@Exported
+	public synchronized long getTotalMillis() {
+		long total = 0;
+		for ( Long millis : phases.values() ) {
+			total += millis;
+		}
+		return total;
+	}
+
+	public synchronized void addAarDigest( String digest ) {
+		aarDigests.add( digest );
+	}
+
+	@Exported
+	public synchronized List<String> getAarDigests() {
+		return new ArrayList<String>( aarDigests );
+	}
+
+	/** Record the state of the deployed AARs 
+	 * @param previousDigests deployed AAR index before the upload */
+	public synchronized void addTargets( List<Wso2ClusterDeployer.NodeResult> results, List<AarArtifact> artifacts, String hierarchy,
+			Map<String, String> previousDigests ) {
+		serviceHierarchy = hierarchy;
+		for ( Wso2ClusterDeployer.NodeResult node : results ) {
+			for ( AarArtifact aar : artifacts ) {
+				String previous = previousDigests.get( Wso2AarPublisher.deployedKey( node.url, hierarchy, aar.targetFileName ) );
+				targets.add( new TargetState( node.url, aar.targetFileName, aar.digest, previous, node.success ) );
+			}
+		}
+	}
+
+	@Exported
+	public synchronized List<TargetState> getTargets() {
+		return new ArrayList<TargetState>( targets );
+	}
+
+	public synchronized String getServiceHierarchy() {
+		return serviceHierarchy;
+	}
+
+	/** Servers with failed uploads */
+	public synchronized List<String> getFailedUrls() {
+		Set<String> urls = new LinkedHashSet<String>();
+		for ( TargetState target : targets ) {
+			if ( ! target.success ) {
+				urls.add( target.url );
+			}
+		}
+		return new ArrayList<String>( urls );
+	}
+
+	/** Keep a copy of the AARs in the build directory, so failed uploads can be retried without rebuild.
+	 * Only the last builds of the job keep their AARs, older copies are deleted. */
+	public void keepArtifacts( AbstractBuild<?, ?> build, List<AarArtifact> artifacts ) throws IOException, InterruptedException {
+		FilePath dir = new FilePath( new File( build.getRootDir(), KEPT_AARS ) );
+		dir.mkdirs();
+		for ( AarArtifact aar : artifacts ) {
+			aar.file.copyTo( dir.child( aar.targetFileName ) );
+		}
+		dropKeptArtifacts( build.getParent().getBuildDir() );
+	}
+
+	/** Delete the kept AARs of all but the newest builds (the builds directory isn't loaded as builds) */
+	private static void dropKeptArtifacts( File buildsDir ) throws IOException {
+		File[] builds = buildsDir.listFiles();
+		if ( builds == null ) {
+			return;
+		}
+		// build number links point to the same directories
+		Set<File> kept = new HashSet<File>();
+		for ( File build : builds ) {
+			File dir = new File( build, KEPT_AARS );
+			if ( dir.isDirectory() ) {
+				kept.add( dir.getCanonicalFile() );
+			}
+		}
+		File[] dirs = kept.toArray( new File[kept.size()] );
+		Arrays.sort( dirs, new Comparator<File>() {
+			public int compare( File a, File b ) {
+				long diff = b.lastModified() - a.lastModified();
+				return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+			}
+		});
+		for ( int i = MAX_KEPT_BUILDS; i < dirs.length; i++ ) {
+			FileUtils.deleteDirectory( dirs[i] );
+		}
+	}
+
+	/** The kept AARs of the failed uploads */
+	public synchronized List<AarArtifact> getKeptArtifacts() throws IOException, InterruptedException {
+		List<AarArtifact> artifacts = new ArrayList<AarArtifact>();
+		Set<String> names = new LinkedHashSet<String>();
+		for ( TargetState target : targets ) {
+			if ( ! target.success && names.add( target.targetFileName ) ) {
+				FilePath kept = new FilePath( new File( new File( build().getRootDir(), KEPT_AARS ), target.targetFileName ) );
+				if ( ! kept.exists() ) {
+					throw new IOException( "AAR "+target.targetFileName+" was not kept with the build" );
+				}
+				artifacts.add( new AarArtifact( kept, target.targetFileName, kept.length(), target.digest ) );
+			}
+		}
+		return artifacts;
+	}
+
+	/** The server results of the deployment, the ones of a retry replace the results of their servers */
+	public synchronized List<Wso2ClusterDeployer.NodeResult> withRetried( List<Wso2ClusterDeployer.NodeResult> results ) {
+		List<Wso2ClusterDeployer.NodeResult> merged = new ArrayList<Wso2ClusterDeployer.NodeResult>( nodes );
+		for ( Wso2ClusterDeployer.NodeResult node : results ) {
+			for ( int i = 0; i < merged.size(); i++ ) {
+				if ( merged.get( i ).url.equals( node.url ) ) {
+					merged.set( i, node );
+				}
+			}
+		}
+		return merged;
+	}
+
+	/** 
+	 * Update the state after a retry, the kept AARs are deleted, when all uploads succeeded 
+	 * @param result deployment result with the retried servers
+	 */
+	public synchronized void retried( List<Wso2ClusterDeployer.NodeResult> results, Result result ) throws IOException {
+		for ( Wso2ClusterDeployer.NodeResult node : results ) {
+			for ( TargetState target : targets ) {
+				if ( target.url.equals( node.url ) && ! target.success ) {
+					target.success = node.success;
+				}
+			}
+		}
+		List<Wso2ClusterDeployer.NodeResult> merged = withRetried( results );
+		nodes.clear();
+		nodes.addAll( merged );
+		setResult( result );
+		if ( getFailedUrls().isEmpty() ) {
+			FileUtils.deleteDirectory( new File( build().getRootDir(), KEPT_AARS ) );
+		}
+		build().save();
+	}
+
+	/** Retry is possible, if uploads failed, the AARs are still kept and the publisher is still configured */
+	public boolean isRetryable() {
+		return ! retrying && ! getFailedUrls().isEmpty() && publisher() != null 
+				&& new File( build().getRootDir(), KEPT_AARS ).isDirectory();
+	}
+
+	public boolean isRetrying() {
+		return retrying;
+	}
+
+	/** Output of the last retry */
+	public String getRetryLog() throws IOException {
+		File log = new File( build().getRootDir(), RETRY_LOG );
+		return log.exists() ? FileUtils.readFileToString( log ) : null;
+	}
+
+	/** Send the kept AARs to the failed servers again, runs in the background, output goes to the retry log */
+	@RequirePOST
+	public void doRetryFailed( StaplerRequest req, StaplerResponse rsp ) throws IOException {
+		build().getParent().checkPermission( AbstractProject.BUILD );
+		final Wso2AarPublisher publisher = publisher();
+		if ( startRetry() ) {
+			StreamBuildListener opened = null;
+			try {
+				final StreamBuildListener listener = new StreamBuildListener( 
+						new FileOutputStream( new File( build().getRootDir(), RETRY_LOG ), true ) );
+				opened = listener;
+				Computer.threadPoolForRemoting.submit( new Runnable() {
+					public void run() {
+						try {
+							publisher.retryFailed( build(), Wso2DeployAction.this, listener );
+						} catch ( Exception e ) {
+							e.printStackTrace( listener.error( "[WSO2 Deployer] Retry failed" ) );
+						} finally {
+							retrying = false;
+							listener.getLogger().close();
+						}
+					}
+				});
+			} catch ( IOException e ) {
+				retrying = false;
+				throw e;
+			} catch ( RuntimeException e ) {
+				// RejectedExecutionException, when Jenkins shuts down
+				retrying = false;
+				if ( opened != null ) {
+					opened.getLogger().close();
+				}
+				throw e;
+			}
+		}
+		rsp.sendRedirect( "." );
+	}
+
+	/** Only one retry at a time: true, if this one may start */
+	private synchronized boolean startRetry() {
+		if ( ! isRetryable() ) {
+			return false;
+		}
+		retrying = true;
+		return true;
+	}
+
+	private Wso2AarPublisher publisher() {
+		return build() == null ? null : build().getParent().getPublishersList().get( Wso2AarPublisher.class );
+	}
+
+	/** The owning build, after a restart it's found via the current request (onLoad doesn't get it in this core) */
+	private AbstractBuild<?, ?> build() {
+		if ( build == null && Stapler.getCurrentRequest() != null ) {
+			build = Stapler.getCurrentRequest().findAncestorObject( AbstractBuild.class );
+		}
+		return build;
+	}
+
+	/** Builds recorded by older versions don't have all lists */
+	protected Object readResolve() {
+		if ( aarDigests == null ) {
+			aarDigests = new ArrayList<String>();
+		}
+		if ( targets == null ) {
+			targets = new ArrayList<TargetState>();
+		}
+		return this;
+	}
+
+	public void onLoad() {
+	}
+
+	public void onAttached( Run run ) {
+		this.build = (AbstractBuild<?, ?>) run;
+	}
+
+	public void onBuildComplete() {
+	}
+
+	public Api getApi() {
+		return new Api( this );
+	}
+
+	/** WSO2_DEPLOY_RESULT, WSO2_DEPLOY_MILLIS, the comma separated server URLs WSO2_DEPLOY_OK and WSO2_DEPLOY_FAILED
+	 *  and the cached AARs WSO2_AAR_SHA256 (AAR source for promotions) */
+	public synchronized void buildEnvVars( AbstractBuild<?, ?> build, EnvVars env ) {
+		if ( result == null ) {
+			return;
+		}
+		StringBuilder ok = new StringBuilder();
+		StringBuilder failed = new StringBuilder();
+		for ( Wso2ClusterDeployer.NodeResult node : nodes ) {
+			StringBuilder list = node.success ? ok : failed;
+			if ( list.length() > 0 ) {
+				list.append( ',' );
+			}
+			list.append( node.url );
+		}
+		env.put( "WSO2_DEPLOY_RESULT", result.toString() );
+		env.put( "WSO2_DEPLOY_MILLIS", String.valueOf( getTotalMillis() ) );
+		env.put( "WSO2_DEPLOY_OK", ok.toString() );
+		env.put( "WSO2_DEPLOY_FAILED", failed.toString() );
+		if ( ! aarDigests.isEmpty() ) {
+			env.put( "WSO2_AAR_SHA256", StringUtils.join( aarDigests, ',' ) );
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package org.mh.jenkins.wso2;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Plugin wide deployment counters and histograms, 
+ * exposed in Prometheus text format by {@link Wso2MetricsRootAction}.
+ *
+ * @author mh
+ *
+ */
+public final class Wso2DeployMetrics {
+
+	/** histogram buckets in seconds */
+	private static final double[] BUCKETS = { 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600 };
+
+	private static final AtomicLong bytesUploaded = new AtomicLong();
+	private static final ConcurrentMap<String, AtomicLong> uploads = new ConcurrentHashMap<String, AtomicLong>();
+	private static final ConcurrentMap<String, AtomicLong> failures = new ConcurrentHashMap<String, AtomicLong>();
+	private static final Histogram uploadLatency = new Histogram();
+	private static final Histogram readyLatency = new Histogram();
+
+	private Wso2DeployMetrics() {
+	}
+
+
+	/** Count the upload to one server, superseded uploads weren't sent and are counted with the newer upload */
+	public static void record( Wso2ClusterDeployer.NodeResult node ) {
+		if ( node.superseded ) {
+			return;
+		}
+		bytesUploaded.addAndGet( node.bytesSent );
+		increment( uploads, node.url );
+		if ( node.success ) {
+			uploadLatency.observe( node.millis );
+		} else {
+			increment( failures, node.url );
+		}
+		if ( node.readyMillis >= 0 ) {
+			readyLatency.observe( node.readyMillis );
+		}
+	}
+
+
+	/** All metrics in Prometheus text exposition format */
+	public static String exposition() {
+		StringBuilder sb = new StringBuilder();
+		sb.append( "# HELP wso2_aar_bytes_uploaded_total Request bytes sent to WSO2 servers\n" );
+		sb.append( "# TYPE wso2_aar_bytes_uploaded_total counter\n" );
+		sb.append( "wso2_aar_bytes_uploaded_total " ).append( bytesUploaded.get() ).append( '\n' );
+		counters( sb, "wso2_aar_uploads_total", "Uploads by endpoint", uploads );
+		counters( sb, "wso2_aar_upload_failures_total", "Failed uploads by endpoint", failures );
+		uploadLatency.write( sb, "wso2_aar_upload_duration_seconds", "Duration of successful uploads" );
+		readyLatency.write( sb, "wso2_aar_ready_duration_seconds", "Time from upload until the service was ready" );
+		return sb.toString();
+	}
+
+
+	private static void increment( ConcurrentMap<String, AtomicLong> map, String key ) {
+		AtomicLong counter = map.get( key );
+		if ( counter == null ) {
+			AtomicLong created = new AtomicLong();
+			counter = map.putIfAbsent( key, created );
+			if ( counter == null ) {
+				counter = created;
+			}
+		}
+		counter.incrementAndGet();
+	}
+
+
+	private static void counters( StringBuilder sb, String name, String help, ConcurrentMap<String, AtomicLong> map ) {
+		sb.append( "# HELP " ).append( name ).append( ' ' ).append( help ).append( '\n' );
+		sb.append( "# TYPE " ).append( name ).append( " counter\n" );
+		for ( Map.Entry<String, AtomicLong> e : new TreeMap<String, AtomicLong>( map ).entrySet() ) {
+			sb.append( name ).append( "{endpoint=\"" ).append( escape( e.getKey() ) ).append( "\"} " )
+				.append( e.getValue().get() ).append( '\n' );
+		}
+	}
+
+
+	private static String escape( String label ) {
+		return label.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ).replace( "\n", "\\n" );
+	}
+
+
+	/** Cumulative histogram of durations */
+	private static class Histogram {
+		private final AtomicLongArray counts = new AtomicLongArray( BUCKETS.length + 1 );
+		private final AtomicLong sumMillis = new AtomicLong();
+
+		void observe( long millis ) {
+			int i = 0;
+			while ( i < BUCKETS.length && millis > BUCKETS[i] * 1000 ) {
+				i++;
+			}
+			counts.incrementAndGet( i );
+			sumMillis.addAndGet( millis );
+		}
+
+		void write( StringBuilder sb, String name, String help ) {
+			sb.append( "# HELP " ).append( name ).append( ' ' ).append( help ).append( '\n' );
+			sb.append( "# TYPE " ).append( name ).append( " histogram\n" );
+			long cumulated = 0;
+			for ( int i = 0; i <= BUCKETS.length; i++ ) {
+				cumulated += counts.get( i );
+				String le = i < BUCKETS.length ? String.valueOf( BUCKETS[i] ) : "+Inf";
+				sb.append( name ).append( "_bucket{le=\"" ).append( le ).append( "\"} " ).append( cumulated ).append( '\n' );
+			}
+			sb.append( name ).append( "_sum " ).append( sumMillis.get() / 1000.0 ).append( '\n' );
+			sb.append( name ).append( "_count " ).append( cumulated ).append( '\n' );
+		}
+	}
+
+}
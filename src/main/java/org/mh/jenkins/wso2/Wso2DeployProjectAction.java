@@ -0,0 +1,94 @@
+package org.mh.jenkins.wso2;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.util.ChartUtil.NumberOnlyBuildLabel;
+import hudson.util.DataSetBuilder;
+import hudson.util.Graph;
+
+import java.awt.Color;
+import java.util.Map;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.data.category.CategoryDataset;
+
+
+/**
+ * Trend graph of the deployment phase timings on the job page.
+ *
+ * @author mh
+ *
+ */
+public class Wso2DeployProjectAction implements Action {
+
+	private static final int MAX_BUILDS = 30;
+
+	private final AbstractProject<?, ?> project;
+
+	public Wso2DeployProjectAction( AbstractProject<?, ?> project ) {
+		this.project = project;
+	}
+
+	/** only the floating box, no link */
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return "WSO2 Deployment Trend";
+	}
+
+	public String getUrlName() {
+		return "wso2-deploy";
+	}
+
+	/** Only the last builds are checked, each build checked is loaded from disk */
+	public boolean hasData() {
+		int count = 0;
+		for ( AbstractBuild<?, ?> build : project.getBuilds() ) {
+			if ( build.getAction( Wso2DeployAction.class ) != null ) {
+				return true;
+			}
+			if ( ++count >= MAX_BUILDS ) {
+				break;
+			}
+		}
+		return false;
+	}
+
+	/** Phase durations of the last builds, see floatingBox.jelly */
+	public Graph getTrend() {
+		AbstractBuild<?, ?> last = project.getLastBuild();
+		return new Graph( last == null ? null : last.getTimestamp(), 500, 200 ) {
+			@Override
+			protected JFreeChart createGraph() {
+				JFreeChart chart = ChartFactory.createLineChart( null, "build", "ms", dataSet(), 
+						PlotOrientation.VERTICAL, true, true, false );
+				chart.setBackgroundPaint( Color.white );
+				return chart;
+			}
+		};
+	}
+
+	private CategoryDataset dataSet() {
+		DataSetBuilder<String, NumberOnlyBuildLabel> data = new DataSetBuilder<String, NumberOnlyBuildLabel>();
+		int count = 0;
+		for ( AbstractBuild<?, ?> build : project.getBuilds() ) {
+			if ( ++count > MAX_BUILDS ) {
+				break;
+			}
+			Wso2DeployAction action = build.getAction( Wso2DeployAction.class );
+			if ( action == null ) {
+				continue;
+			}
+			for ( Map.Entry<String, Long> phase : action.getPhases().entrySet() ) {
+				data.add( phase.getValue(), phase.getKey(), new NumberOnlyBuildLabel( build ) );
+			}
+		}
+		return data.build();
+	}
+
+}
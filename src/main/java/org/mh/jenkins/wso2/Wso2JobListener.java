@@ -0,0 +1,34 @@
+package org.mh.jenkins.wso2;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+
+import jenkins.model.Jenkins;
+
+
+/**
+ * Keeps the deployed AAR index in step with the jobs:
+ * servers no job deploys to any more are dropped when a job is deleted or reconfigured.
+ *
+ * @author mh
+ *
+ */
+@Extension
+public class Wso2JobListener extends ItemListener {
+
+	@Override
+	public void onDeleted( Item item ) {
+		descriptor().pruneDeployedDigests( item );
+	}
+
+	@Override
+	public void onUpdated( Item item ) {
+		descriptor().pruneDeployedDigests( null );
+	}
+
+	private static Wso2AarPublisher.DescriptorImpl descriptor() {
+		return Jenkins.getInstance().getDescriptorByType( Wso2AarPublisher.DescriptorImpl.class );
+	}
+
+}
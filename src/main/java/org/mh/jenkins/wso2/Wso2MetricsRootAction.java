@@ -0,0 +1,42 @@
+package org.mh.jenkins.wso2;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+
+import java.io.IOException;
+
+import jenkins.model.Jenkins;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+
+/**
+ * Scrape endpoint for the deployment metrics: <tt>&lt;jenkins&gt;/wso2-aar-metrics/</tt>
+ *
+ * @author mh
+ *
+ */
+@Extension
+public class Wso2MetricsRootAction implements RootAction {
+
+	/** no link in the side panel */
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return "WSO2 AAR Deployer Metrics";
+	}
+
+	public String getUrlName() {
+		return "wso2-aar-metrics";
+	}
+
+	public void doIndex( StaplerRequest req, StaplerResponse rsp ) throws IOException {
+		Jenkins.getInstance().checkPermission( Jenkins.READ );
+		rsp.setContentType( "text/plain; version=0.0.4; charset=utf-8" );
+		rsp.getWriter().print( Wso2DeployMetrics.exposition() );
+	}
+
+}
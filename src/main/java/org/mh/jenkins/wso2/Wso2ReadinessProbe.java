@@ -0,0 +1,271 @@
+package org.mh.jenkins.wso2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.apache.commons.lang.StringUtils;
+
+
+/**
+ * Polls a URL (usually the ?wsdl of the deployed service) until the new deployment answers,
+ * i.e. the hot deployment on the WSO2 server is finished.
+ *
+ * On a redeploy the old service answers with HTTP 200 until WSO2 swaps it, so a baseline of the URL
+ * is taken before the upload. The URL is ready, when it answers with HTTP 200 and
+ * it did not before the upload, or it was down in between (undeployed), or the response changed
+ * (ETag, Last-Modified or the content).
+ *
+ * All probes share a small scheduler, no thread is blocked between two polls.
+ *
+ * @author mh
+ *
+ */
+public class Wso2ReadinessProbe {
+
+	private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+	/** Max. response size hashed for the comparison with the baseline */
+	private static final int MAX_CONTENT_BYTES = 1024 * 1024;
+
+	private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool( 2, new ThreadFactory() {
+		public Thread newThread( Runnable r ) {
+			Thread t = new Thread( r, "WSO2 AAR readiness probe" );
+			t.setDaemon( true );
+			return t;
+		}
+	});
+
+	/** Response of the URL before the upload */
+	public static final class Baseline {
+		private final URL url;
+		private final Response response;
+
+		private Baseline( URL url, Response response ) {
+			this.url = url;
+			this.response = response;
+		}
+
+		public URL getUrl() {
+			return url;
+		}
+
+		@Override
+		public String toString() {
+			return url+" ("+response+")";
+		}
+	}
+
+	/** Status, validators and content hash of one response, status -1 if the request failed */
+	private static final class Response {
+		final int status;
+		final String etag;
+		final String lastModified;
+		final String digest;
+		final String error;
+
+		Response( int status, String etag, String lastModified, String digest, String error ) {
+			this.status = status;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.digest = digest;
+			this.error = error;
+		}
+
+		boolean isOk() {
+			return status == HttpURLConnection.HTTP_OK;
+		}
+
+		/** Different content or validators, only compared if both responses are HTTP 200 */
+		boolean differs( Response other ) {
+			return ! StringUtils.equals( digest, other.digest ) || ! StringUtils.equals( etag, other.etag )
+					|| ! StringUtils.equals( lastModified, other.lastModified );
+		}
+
+		@Override
+		public String toString() {
+			return status < 0 ? error : "HTTP "+status;
+		}
+	}
+
+	private final Baseline baseline;
+	private final long intervalMillis;
+	private final long deadline;
+	private final long start = System.currentTimeMillis();
+	private final CountDownLatch done = new CountDownLatch( 1 );
+	private volatile long readyMillis = -1;
+	private volatile String lastStatus = "not checked";
+	/** the URL didn't answer with HTTP 200 since the upload */
+	private volatile boolean wasDown;
+
+	private Wso2ReadinessProbe( Baseline baseline, long timeoutMillis, long intervalMillis ) {
+		this.baseline = baseline;
+		this.intervalMillis = intervalMillis;
+		this.deadline = start + timeoutMillis;
+	}
+
+
+	/** Get the response of the URL before the upload */
+	public static Baseline baseline( URL url ) {
+		return new Baseline( url, fetch( url, CONNECT_TIMEOUT_MILLIS ) );
+	}
+
+
+	/** Start polling the URL of the baseline, taken before the upload */
+	public static Wso2ReadinessProbe start( Baseline baseline, long timeoutMillis, long intervalMillis ) {
+		Wso2ReadinessProbe probe = new Wso2ReadinessProbe( baseline, timeoutMillis, Math.max( 100, intervalMillis ) );
+		probe.schedule( 0 );
+		return probe;
+	}
+
+
+	/**
+	 * Wait for the result
+	 * @return milliseconds from start until the URL was ready, -1 on timeout or if the probe failed
+	 */
+	public long await() throws InterruptedException {
+		// the last poll may still run at the deadline
+		long maxWait = deadline - start + intervalMillis + CONNECT_TIMEOUT_MILLIS + readTimeoutMillis();
+		if ( ! done.await( maxWait, TimeUnit.MILLISECONDS ) ) {
+			lastStatus = "no result after "+maxWait+" ms, "+lastStatus;
+			return -1;
+		}
+		return readyMillis;
+	}
+
+	public URL getUrl() {
+		return baseline.url;
+	}
+
+	/** Last HTTP status or error of the URL */
+	public String getLastStatus() {
+		return lastStatus;
+	}
+
+
+	private void schedule( long delay ) {
+		scheduler.schedule( new Runnable() {
+			public void run() {
+				poll();
+			}
+		}, delay, TimeUnit.MILLISECONDS );
+	}
+
+
+	private void poll() {
+		try {
+			if ( isReady() ) {
+				readyMillis = System.currentTimeMillis() - start;
+				done.countDown();
+			} else if ( System.currentTimeMillis() + intervalMillis > deadline ) {
+				done.countDown();
+			} else {
+				schedule( intervalMillis );
+			}
+		} catch ( Throwable t ) {
+			// otherwise await() waits for a poll that never comes
+			lastStatus = "probe failed: "+t;
+			done.countDown();
+		}
+	}
+
+
+	/** New deployment answers */
+	private boolean isReady() {
+		Response response = fetch( baseline.url, readTimeoutMillis() );
+		if ( ! response.isOk() ) {
+			wasDown |= response.status > 0;
+			lastStatus = response.toString();
+			return false;
+		}
+		if ( ! baseline.response.isOk() || wasDown || response.differs( baseline.response ) ) {
+			lastStatus = response.toString();
+			return true;
+		}
+		lastStatus = response+", unchanged since the upload (old deployment)";
+		return false;
+	}
+
+
+	private int readTimeoutMillis() {
+		return (int) Math.max( CONNECT_TIMEOUT_MILLIS, intervalMillis );
+	}
+
+
+	private static Response fetch( URL url, int readTimeoutMillis ) {
+		try {
+			HttpURLConnection con = (HttpURLConnection) url.openConnection();
+			if ( con instanceof HttpsURLConnection ) {
+				// same trust settings as the SOAP admin client
+				((HttpsURLConnection) con).setSSLSocketFactory( trustAllSocketFactory() );
+				((HttpsURLConnection) con).setHostnameVerifier( new HostnameVerifier() {
+					public boolean verify( String hostname, SSLSession session ) {
+						return true;
+					}
+				});
+			}
+			con.setConnectTimeout( CONNECT_TIMEOUT_MILLIS );
+			con.setReadTimeout( readTimeoutMillis );
+			con.setUseCaches( false );
+			try {
+				int status = con.getResponseCode();
+				String digest = null;
+				if ( status == HttpURLConnection.HTTP_OK ) {
+					digest = contentDigest( con.getInputStream() );
+				}
+				return new Response( status, con.getHeaderField( "ETag" ), con.getHeaderField( "Last-Modified" ), digest, null );
+			} finally {
+				con.disconnect();
+			}
+		} catch ( IOException e ) {
+			return new Response( -1, null, null, null, e.toString() );
+		} catch ( GeneralSecurityException e ) {
+			return new Response( -1, null, null, null, e.toString() );
+		}
+	}
+
+
+	/** SHA-256 of the first MB of the content */
+	private static String contentDigest( InputStream in ) throws IOException {
+		try {
+			MessageDigest md = AarDigest.newDigest();
+			byte[] buffer = new byte[8192];
+			int total = 0;
+			int read;
+			while ( total < MAX_CONTENT_BYTES && ( read = in.read( buffer ) ) >= 0 ) {
+				md.update( buffer, 0, read );
+				total += read;
+			}
+			return AarDigest.toHex( md.digest() );
+		} finally {
+			in.close();
+		}
+	}
+
+
+	private static SSLSocketFactory socketFactory;
+
+	private static synchronized SSLSocketFactory trustAllSocketFactory() throws GeneralSecurityException {
+		if ( socketFactory == null ) {
+			SSLContext ctx = SSLContext.getInstance( "TLS" );
+			ctx.init( null, Wso2AarDeployClient.trustAllManagers(), null );
+			socketFactory = ctx.getSocketFactory();
+		}
+		return socketFactory;
+	}
+
+}
@@ -0,0 +1,102 @@
+package org.mh.jenkins.wso2;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+import javax.xml.ws.soap.SOAPFaultException;
+
+import org.apache.cxf.transport.http.HTTPException;
+import org.wso2.carbon.aarservices.Exception_Exception;
+
+
+/**
+ * Retry settings for uploads with exponential backoff and jitter,
+ * and the classification of upload errors into retryable and fatal ones.
+ *
+ * @author mh
+ *
+ */
+public class Wso2RetryPolicy implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Single attempt, no retry */
+	public static final Wso2RetryPolicy NONE = new Wso2RetryPolicy( 1, 0, 0 );
+
+	private static final long MAX_BACKOFF_MILLIS = 5 * 60 * 1000L;
+
+	private static final Random random = new Random();
+
+	private final int attempts;
+	private final long backoffMillis;
+	private final int jitterPercent;
+
+	/**
+	 * @param attempts max. number of upload attempts (at least 1)
+	 * @param backoffMillis wait time before the first retry, doubled for each further retry
+	 * @param jitterPercent random variation of the wait time, +/- percent
+	 */
+	public Wso2RetryPolicy( int attempts, long backoffMillis, int jitterPercent ) {
+		this.attempts = Math.max( 1, attempts );
+		this.backoffMillis = Math.max( 0, backoffMillis );
+		this.jitterPercent = Math.min( 100, Math.max( 0, jitterPercent ) );
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	/** Wait time before the given retry (1 = first retry) */
+	public long backoff( int retry ) {
+		long wait = Math.min( MAX_BACKOFF_MILLIS, backoffMillis << Math.min( 20, retry - 1 ) );
+		if ( jitterPercent > 0 && wait > 0 ) {
+			long jitter = wait * jitterPercent / 100;
+			synchronized ( random ) {
+				wait += (long) ( ( random.nextDouble() * 2 - 1 ) * jitter );
+			}
+		}
+		return Math.max( 0, wait );
+	}
+
+
+	/**
+	 * Transport problems (timeouts, connection resets, HTTP 502/503/504, ...) are retryable.
+	 * Faults sent by the WSO2 server, authentication errors and missing files are fatal.
+	 */
+	public static boolean isRetryable( Throwable error ) {
+		for ( Throwable t = error; t != null; t = t.getCause() ) {
+			if ( t instanceof Exception_Exception || t instanceof SOAPFaultException || t instanceof FileNotFoundException ) {
+				return false;
+			}
+			if ( t instanceof HTTPException ) {
+				int status = ((HTTPException) t).getResponseCode();
+				return status == 502 || status == 503 || status == 504 || status == 408;
+			}
+			if ( t instanceof UnknownHostException ) {
+				return false;
+			}
+			if ( t instanceof SocketTimeoutException || t instanceof ConnectException || t instanceof NoRouteToHostException
+					|| t instanceof SocketException || t instanceof InterruptedIOException ) {
+				return true;
+			}
+			if ( t.getCause() == null && t instanceof IOException ) {
+				return true; // e.g. unexpected end of stream
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return attempts+" attempt(s), backoff "+backoffMillis+" ms, jitter "+jitterPercent+"%";
+	}
+
+}
@@ -0,0 +1,54 @@
+package org.mh.jenkins.wso2;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+
+/**
+ * Named group of WSO2 servers of the global topology, jobs deploy to a group by its name.
+ *
+ * @author mh
+ *
+ */
+public class Wso2ServerGroup {
+
+	private final String name;
+	private final String servers;
+	private final String adminUser;
+	private final String adminPwd;
+	private final int maxParallel;
+
+	/** 
+	 * @param servers server URLs, comma or whitespace separated
+	 * @param maxParallel max. concurrent uploads of a deployment to this group, 0 is the global setting 
+	 */
+	@DataBoundConstructor
+	public Wso2ServerGroup( String name, String servers, String adminUser, String adminPwd, int maxParallel ) {
+		this.name = StringUtils.trimToEmpty( name );
+		this.servers = StringUtils.trimToEmpty( servers );
+		this.adminUser = StringUtils.trimToEmpty( adminUser );
+		this.adminPwd = StringUtils.trimToEmpty( adminPwd );
+		this.maxParallel = maxParallel;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getServers() {
+		return servers;
+	}
+
+	public String getAdminUser() {
+		return adminUser;
+	}
+
+	public String getAdminPwd() {
+		return adminPwd;
+	}
+
+	public int getMaxParallel() {
+		return maxParallel;
+	}
+
+}
@@ -0,0 +1,203 @@
+package org.mh.jenkins.wso2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * JVM wide limit of concurrent uploads per WSO2 server.
+ *
+ * Uploads are queued per server, before they take a thread of the {@link Wso2UploadEngine},
+ * so uploads waiting for a busy server don't block uploads to other servers.
+ * An upload gets its slot in arrival order and is started then (see {@link Start}).
+ *
+ * If several uploads of the same AARs to the same server are waiting, only the newest one is sent.
+ * The older ones are superseded: they are started without a slot, when the newest one is finished,
+ * and get its outcome.
+ *
+ * @author mh
+ *
+ */
+public final class Wso2ServerScheduler {
+
+	/** Starts an upload, when it got a slot or when the upload superseding it is finished */
+	public interface Start {
+		/** Called on the thread enqueuing or releasing an upload, so it must not block */
+		void start( Ticket ticket );
+	}
+
+	/** Queue and slots of one server */
+	private static final class Server {
+		int active;
+		final LinkedList<Ticket> waiting = new LinkedList<Ticket>();
+		/** newest queued ticket per upload key */
+		final Map<String, Ticket> newest = new HashMap<String, Ticket>();
+	}
+
+	/** Place of one upload in the server queue */
+	public static final class Ticket {
+		private final Server server;
+		private final String key;
+		private final Start start;
+		private final long queued = System.currentTimeMillis();
+		private long waitMillis;
+		private boolean acquired;
+		private boolean superseded;
+		private boolean newerSuccess;
+		/** superseded tickets waiting for the outcome of this one */
+		private List<Ticket> dependents = new ArrayList<Ticket>();
+
+		private Ticket( Server server, String key, Start start ) {
+			this.server = server;
+			this.key = key;
+			this.start = start;
+		}
+
+		/** Not sent, a newer upload of the same AARs to the server was queued */
+		public synchronized boolean isSuperseded() {
+			return superseded;
+		}
+
+		/** Outcome of the newer upload, if superseded */
+		public synchronized boolean isNewerSuccess() {
+			return newerSuccess;
+		}
+
+		/** Time spent in the queue */
+		public synchronized long getWaitMillis() {
+			return waitMillis;
+		}
+
+		/** Free the upload slot and pass the outcome to the superseded uploads */
+		public void release( boolean success ) {
+			List<Ticket> started;
+			synchronized ( Wso2ServerScheduler.class ) {
+				started = finish( success );
+				if ( acquired ) {
+					acquired = false;
+					server.active--;
+					started.addAll( dispatch( server ) );
+				}
+			}
+			startAll( started );
+		}
+
+		/** Remove the upload from the queue or free its slot, superseded uploads fail */
+		public void cancel() {
+			List<Ticket> started;
+			synchronized ( Wso2ServerScheduler.class ) {
+				if ( server.waiting.remove( this ) && server.newest.get( key ) == this ) {
+					server.newest.remove( key );
+				}
+				started = finish( false );
+				if ( acquired ) {
+					acquired = false;
+					server.active--;
+					started.addAll( dispatch( server ) );
+				}
+			}
+			startAll( started );
+		}
+
+		/** Hand the outcome to the dependents, called with the lock held */
+		private List<Ticket> finish( boolean success ) {
+			List<Ticket> done = dependents;
+			dependents = new ArrayList<Ticket>();
+			for ( Ticket ticket : done ) {
+				synchronized ( ticket ) {
+					ticket.newerSuccess = success;
+				}
+			}
+			return done;
+		}
+	}
+
+	private static int maxConcurrent = 2;
+	private static final Map<String, Server> servers = new HashMap<String, Server>();
+
+	private Wso2ServerScheduler() {
+	}
+
+
+	/** Set the max. number of concurrent uploads per server (from the global plugin configuration) */
+	public static void configure( int maxPerServer ) {
+		List<Ticket> started = new ArrayList<Ticket>();
+		synchronized ( Wso2ServerScheduler.class ) {
+			maxConcurrent = Math.max( 1, maxPerServer );
+			// running uploads keep their slots, more waiting uploads start if the limit was raised
+			for ( Server server : servers.values() ) {
+				started.addAll( dispatch( server ) );
+			}
+		}
+		startAll( started );
+	}
+
+
+	/**
+	 * Queue an upload, it is started when it gets a slot
+	 * @param url WSO2 server URL
+	 * @param key identifies the uploaded AARs (hierarchy and target file names)
+	 * @param start starts the upload, must release the ticket when done
+	 */
+	public static Ticket enqueue( String url, String key, Start start ) {
+		Ticket ticket;
+		List<Ticket> started;
+		synchronized ( Wso2ServerScheduler.class ) {
+			Server server = servers.get( url );
+			if ( server == null ) {
+				server = new Server();
+				servers.put( url, server );
+			}
+			ticket = new Ticket( server, key, start );
+			server.newest.put( key, ticket );
+			server.waiting.add( ticket );
+			started = dispatch( server );
+		}
+		startAll( started );
+		return ticket;
+	}
+
+
+	/** Number of uploads waiting for a slot of the server */
+	public static synchronized int queued( String url ) {
+		Server server = servers.get( url );
+		return server == null ? 0 : server.waiting.size();
+	}
+
+
+	/** Give free slots to the waiting tickets, called with the lock held, returns the tickets to start */
+	private static List<Ticket> dispatch( Server server ) {
+		List<Ticket> started = new ArrayList<Ticket>();
+		while ( ! server.waiting.isEmpty() && server.active < maxConcurrent ) {
+			Ticket ticket = server.waiting.removeFirst();
+			Ticket newest = server.newest.get( ticket.key );
+			synchronized ( ticket ) {
+				ticket.waitMillis = System.currentTimeMillis() - ticket.queued;
+				if ( newest != null && newest != ticket ) {
+					// started when the newest upload is finished
+					ticket.superseded = true;
+					newest.dependents.add( ticket );
+					newest.dependents.addAll( ticket.dependents );
+					ticket.dependents.clear();
+					continue;
+				}
+				ticket.acquired = true;
+			}
+			server.newest.remove( ticket.key );
+			server.active++;
+			started.add( ticket );
+		}
+		return started;
+	}
+
+
+	private static void startAll( List<Ticket> tickets ) {
+		for ( Ticket ticket : tickets ) {
+			ticket.start.start( ticket );
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+package org.mh.jenkins.wso2;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * JVM wide upload engine: all deployments share a small, fixed number of I/O threads.
+ *
+ * Uploads are queued in a bounded queue, if it is full the submitting build waits (backpressure),
+ * so many concurrent deployments don't create a thread per upload.
+ *
+ * @author mh
+ *
+ */
+public final class Wso2UploadEngine {
+
+	private static final int QUEUE_SIZE = 100;
+
+	private static final ThreadPoolExecutor executor = new ThreadPoolExecutor( 8, 8, 60, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<Runnable>( QUEUE_SIZE ), 
+			new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread( Runnable r ) {
+					Thread t = new Thread( r, "WSO2 AAR upload "+count.incrementAndGet() );
+					t.setDaemon( true );
+					return t;
+				}
+			},
+			new RejectedExecutionHandler() {
+				/** block the caller until the queue has room */
+				public void rejectedExecution( Runnable r, ThreadPoolExecutor pool ) {
+					try {
+						pool.getQueue().put( r );
+					} catch ( InterruptedException e ) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException( "Interrupted while waiting for the upload queue", e );
+					}
+				}
+			});
+
+	static {
+		executor.allowCoreThreadTimeOut( true );
+	}
+
+	private Wso2UploadEngine() {
+	}
+
+
+	/** Set the number of upload threads (from the global plugin configuration) */
+	public static synchronized void configure( int threads ) {
+		int n = Math.max( 1, threads );
+		if ( n > executor.getMaximumPoolSize() ) {
+			executor.setMaximumPoolSize( n );
+			executor.setCorePoolSize( n );
+		} else {
+			executor.setCorePoolSize( n );
+			executor.setMaximumPoolSize( n );
+		}
+	}
+
+
+	/** Queue an upload task, blocks while the queue is full */
+	public static void execute( Runnable upload ) {
+		executor.execute( upload );
+	}
+
+}
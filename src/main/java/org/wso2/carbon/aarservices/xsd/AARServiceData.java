@@ -1,6 +1,7 @@
 
 package org.wso2.carbon.aarservices.xsd;
 
+import javax.activation.DataHandler;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -38,7 +39,7 @@ import javax.xml.bind.annotation.XmlType;
 public class AARServiceData {
 
     @XmlElementRef(name = "dataHandler", namespace = "http://aarservices.carbon.wso2.org/xsd", type = JAXBElement.class, required = false)
-    protected JAXBElement<byte[]> dataHandler;
+    protected JAXBElement<DataHandler> dataHandler;
     @XmlElementRef(name = "fileName", namespace = "http://aarservices.carbon.wso2.org/xsd", type = JAXBElement.class, required = false)
     protected JAXBElement<String> fileName;
     @XmlElementRef(name = "serviceHierarchy", namespace = "http://aarservices.carbon.wso2.org/xsd", type = JAXBElement.class, required = false)
@@ -49,10 +50,10 @@ public class AARServiceData {
      * 
      * @return
      *     possible object is
-     *     {@link JAXBElement }{@code <}{@link byte[]}{@code >}
+     *     {@link JAXBElement }{@code <}{@link DataHandler }{@code >}
      *     
      */
-    public JAXBElement<byte[]> getDataHandler() {
+    public JAXBElement<DataHandler> getDataHandler() {
         return dataHandler;
     }
 
@@ -61,10 +62,10 @@ public class AARServiceData {
      * 
      * @param value
      *     allowed object is
-     *     {@link JAXBElement }{@code <}{@link byte[]}{@code >}
+     *     {@link JAXBElement }{@code <}{@link DataHandler }{@code >}
      *     
      */
-    public void setDataHandler(JAXBElement<byte[]> value) {
+    public void setDataHandler(JAXBElement<DataHandler> value) {
         this.dataHandler = value;
     }
 
@@ -1,8 +1,10 @@
 
 package org.wso2.carbon.aarservices.xsd;
 
+import javax.activation.DataHandler;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.annotation.XmlElementDecl;
+import javax.xml.bind.annotation.XmlMimeType;
 import javax.xml.bind.annotation.XmlRegistry;
 import javax.xml.namespace.QName;
 
@@ -62,12 +64,13 @@ public class ObjectFactory {
     }
 
     /**
-     * Create an instance of {@link JAXBElement }{@code <}{@link byte[]}{@code >}}
+     * Create an instance of {@link JAXBElement }{@code <}{@link DataHandler }{@code >}}
      * 
      */
     @XmlElementDecl(namespace = "http://aarservices.carbon.wso2.org/xsd", name = "dataHandler", scope = AARServiceData.class)
-    public JAXBElement<byte[]> createAARServiceDataDataHandler(byte[] value) {
-        return new JAXBElement<byte[]>(_AARServiceDataDataHandler_QNAME, byte[].class, AARServiceData.class, ((byte[]) value));
+    @XmlMimeType("application/octet-stream")
+    public JAXBElement<DataHandler> createAARServiceDataDataHandler(DataHandler value) {
+        return new JAXBElement<DataHandler>(_AARServiceDataDataHandler_QNAME, DataHandler.class, AARServiceData.class, value);
     }
 
 }
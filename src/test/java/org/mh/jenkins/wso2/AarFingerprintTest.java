@@ -0,0 +1,115 @@
+package org.mh.jenkins.wso2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Content fingerprint: rebuilds without changes keep the fingerprint, content changes don't.
+ *
+ * @author mh
+ *
+ */
+public class AarFingerprintTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void timestampsAndOrderAreIgnored() throws Exception {
+		File a = new ZipBuilder().time( 1000000000000L )
+				.add( "META-INF/services.xml", "<service name=\"Echo\"/>" )
+				.add( "org/mh/Echo.class", "v1" )
+				.writeTo( tmp.newFile( "a.aar" ) );
+		File b = new ZipBuilder().time( 1400000000000L )
+				.add( "org/mh/Echo.class", "v1" )
+				.add( "META-INF/services.xml", "<service name=\"Echo\"/>" )
+				.writeTo( tmp.newFile( "b.aar" ) );
+		assertEquals( fingerprint( a, "" ), fingerprint( b, "" ) );
+	}
+
+	@Test
+	public void volatileEntriesAreIgnored() throws Exception {
+		File a = new ZipBuilder()
+				.add( "META-INF/MANIFEST.MF", "Built-At: 1" )
+				.add( "META-INF/maven/org.mh/echo/pom.properties", "version=1" )
+				.add( "org/mh/Echo.class", "v1" )
+				.writeTo( tmp.newFile( "a.aar" ) );
+		File b = new ZipBuilder()
+				.add( "META-INF/MANIFEST.MF", "Built-At: 2" )
+				.add( "META-INF/maven/org.mh/echo/pom.properties", "version=2" )
+				.add( "org/mh/Echo.class", "v1" )
+				.writeTo( tmp.newFile( "b.aar" ) );
+		assertEquals( fingerprint( a, "" ), fingerprint( b, "" ) );
+		assertNotEquals( fingerprint( a, "META-INF/MANIFEST.MF" ), fingerprint( b, "META-INF/MANIFEST.MF" ) );
+	}
+
+	@Test
+	public void changedClassChangesFingerprint() throws Exception {
+		File a = new ZipBuilder().add( "org/mh/Echo.class", "v1" ).writeTo( tmp.newFile( "a.aar" ) );
+		File b = new ZipBuilder().add( "org/mh/Echo.class", "v2" ).writeTo( tmp.newFile( "b.aar" ) );
+		assertNotEquals( fingerprint( a, "" ), fingerprint( b, "" ) );
+	}
+
+	@Test
+	public void nestedJarsAreFingerprintedByContent() throws Exception {
+		byte[] jar1 = new ZipBuilder().time( 1000000000000L )
+				.add( "META-INF/MANIFEST.MF", "Built-At: 1" ).add( "org/mh/Util.class", "u1" ).toBytes();
+		byte[] jar2 = new ZipBuilder().time( 1400000000000L )
+				.add( "META-INF/MANIFEST.MF", "Built-At: 2" ).add( "org/mh/Util.class", "u1" ).toBytes();
+		byte[] jar3 = new ZipBuilder().add( "org/mh/Util.class", "u2" ).toBytes();
+		File a = new ZipBuilder().add( "lib/util.jar", jar1 ).writeTo( tmp.newFile( "a.aar" ) );
+		File b = new ZipBuilder().add( "lib/util.jar", jar2 ).writeTo( tmp.newFile( "b.aar" ) );
+		File c = new ZipBuilder().add( "lib/util.jar", jar3 ).writeTo( tmp.newFile( "c.aar" ) );
+		assertEquals( fingerprint( a, "" ), fingerprint( b, "" ) );
+		assertNotEquals( fingerprint( a, "" ), fingerprint( c, "" ) );
+	}
+
+	@Test
+	public void fingerprintHasPrefix() throws Exception {
+		File a = new ZipBuilder().add( "org/mh/Echo.class", "v1" ).writeTo( tmp.newFile( "a.aar" ) );
+		assertTrue( fingerprint( a, "" ).matches( "fp:[0-9a-f]{64}" ) );
+	}
+
+	@Test
+	public void globPatterns() {
+		List<Pattern> patterns = AarFingerprint.patterns( "META-INF/*.MF, **/build.properties, conf/?.xml" );
+		assertEquals( 3, patterns.size() );
+		assertTrue( matches( patterns, "META-INF/MANIFEST.MF" ) );
+		assertFalse( matches( patterns, "META-INF/sub/MANIFEST.MF" ) );
+		assertTrue( matches( patterns, "a/b/build.properties" ) );
+		assertTrue( matches( patterns, "conf/a.xml" ) );
+		assertFalse( matches( patterns, "conf/ab.xml" ) );
+		assertFalse( matches( patterns, "META-INF/services.xml" ) );
+	}
+
+	@Test
+	public void blankPatternsAreTheDefault() {
+		assertEquals( AarFingerprint.patterns( AarFingerprint.DEFAULT_VOLATILE_ENTRIES ).toString(),
+				AarFingerprint.patterns( " " ).toString() );
+	}
+
+	private static String fingerprint( File aar, String volatileEntries ) throws Exception {
+		return new AarFingerprint( volatileEntries ).invoke( aar, null );
+	}
+
+	private static boolean matches( List<Pattern> patterns, String name ) {
+		for ( Pattern p : patterns ) {
+			if ( p.matcher( name ).matches() ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,115 @@
+package org.mh.jenkins.wso2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * AAR checks before the upload and the service names from the services.xml.
+ *
+ * @author mh
+ *
+ */
+public class AarValidatorTest {
+
+	private static final String SERVICES_XML =
+			"<serviceGroup>"
+			+ "<service name=\"Echo\"><parameter name=\"ServiceClass\">org.mh.Echo</parameter></service>"
+			+ "<service name=\"Ping\"><parameter name=\"ServiceClass\">org.mh.util.Ping</parameter></service>"
+			+ "</serviceGroup>";
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void validAar() throws Exception {
+		byte[] lib = new ZipBuilder().add( "org/mh/util/Ping.class", "ping" ).toBytes();
+		File aar = new ZipBuilder()
+				.add( "META-INF/services.xml", SERVICES_XML )
+				.add( "org/mh/Echo.class", "echo" )
+				.add( "lib/util.jar", lib )
+				.writeTo( tmp.newFile( "echo.aar" ) );
+		assertEquals( Collections.emptyList(), validate( aar, 0 ) );
+	}
+
+	@Test
+	public void missingServiceClass() throws Exception {
+		File aar = new ZipBuilder()
+				.add( "META-INF/services.xml", SERVICES_XML )
+				.add( "org/mh/Echo.class", "echo" )
+				.writeTo( tmp.newFile( "echo.aar" ) );
+		List<String> problems = validate( aar, 0 );
+		assertEquals( 1, problems.size() );
+		assertTrue( problems.get( 0 ), problems.get( 0 ).contains( "org.mh.util.Ping" ) );
+	}
+
+	@Test
+	public void missingServicesXml() throws Exception {
+		File aar = new ZipBuilder().add( "org/mh/Echo.class", "echo" ).writeTo( tmp.newFile( "echo.aar" ) );
+		List<String> problems = validate( aar, 0 );
+		assertEquals( 1, problems.size() );
+		assertTrue( problems.get( 0 ), problems.get( 0 ).contains( "missing" ) );
+	}
+
+	@Test
+	public void notAZip() throws Exception {
+		File aar = tmp.newFile( "broken.aar" );
+		OutputStream out = new FileOutputStream( aar );
+		try {
+			out.write( "no zip".getBytes( "UTF-8" ) );
+		} finally {
+			out.close();
+		}
+		assertEquals( 1, validate( aar, 0 ).size() );
+	}
+
+	@Test
+	public void sizeLimit() throws Exception {
+		File aar = new ZipBuilder()
+				.add( "META-INF/services.xml", SERVICES_XML )
+				.writeTo( tmp.newFile( "echo.aar" ) );
+		List<String> problems = validate( aar, 10 );
+		assertEquals( 1, problems.size() );
+		assertTrue( problems.get( 0 ), problems.get( 0 ).contains( "exceeds" ) );
+	}
+
+	@Test
+	public void externalEntitiesAreNotResolved() throws Exception {
+		File secret = tmp.newFile( "secret.txt" );
+		String xxe = "<?xml version=\"1.0\"?><!DOCTYPE service [<!ENTITY x SYSTEM \""+secret.toURI()+"\">]>"
+				+ "<service name=\"Echo\"><parameter name=\"ServiceClass\">&x;</parameter></service>";
+		File aar = new ZipBuilder().add( "META-INF/services.xml", xxe ).writeTo( tmp.newFile( "echo.aar" ) );
+		List<String> problems = validate( aar, 0 );
+		assertEquals( 1, problems.size() );
+		assertTrue( problems.get( 0 ), problems.get( 0 ).contains( "does not parse" ) );
+		assertEquals( Collections.emptyList(), new AarValidator.ServiceNames().invoke( aar, null ) );
+	}
+
+	@Test
+	public void serviceNames() throws Exception {
+		File aar = new ZipBuilder().add( "META-INF/services.xml", SERVICES_XML ).writeTo( tmp.newFile( "echo.aar" ) );
+		assertEquals( Arrays.asList( "Echo", "Ping" ), new AarValidator.ServiceNames().invoke( aar, null ) );
+	}
+
+	@Test
+	public void noServiceNamesWithoutServicesXml() throws Exception {
+		File aar = new ZipBuilder().add( "org/mh/Echo.class", "echo" ).writeTo( tmp.newFile( "echo.aar" ) );
+		assertEquals( Collections.emptyList(), new AarValidator.ServiceNames().invoke( aar, null ) );
+	}
+
+	private static List<String> validate( File aar, long maxBytes ) throws Exception {
+		return new AarValidator( maxBytes ).invoke( aar, null );
+	}
+
+}
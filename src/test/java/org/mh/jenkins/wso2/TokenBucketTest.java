@@ -0,0 +1,79 @@
+package org.mh.jenkins.wso2;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Bandwidth limit: senders wait until their bytes are covered by the rate.
+ *
+ * @author mh
+ *
+ */
+public class TokenBucketTest {
+
+	@Test
+	public void unlimitedDoesNotWait() throws Exception {
+		TokenBucket bucket = new TokenBucket( 0 );
+		assertTrue( bucket.isUnlimited() );
+		long start = System.currentTimeMillis();
+		bucket.acquire( 100L * 1024 * 1024 );
+		assertTrue( System.currentTimeMillis() - start < 100 );
+	}
+
+	@Test
+	public void rateIsEnforced() throws Exception {
+		TokenBucket bucket = new TokenBucket( 10000 );
+		assertFalse( bucket.isUnlimited() );
+		long start = System.currentTimeMillis();
+		for ( int i = 0; i < 5; i++ ) {
+			bucket.acquire( 1000 );
+		}
+		long millis = System.currentTimeMillis() - start;
+		assertTrue( millis+" ms", millis >= 400 && millis < 2000 );
+	}
+
+	@Test
+	public void concurrentSendersShareTheRate() throws Exception {
+		final TokenBucket bucket = new TokenBucket( 10000 );
+		Thread other = new Thread() {
+			@Override
+			public void run() {
+				try {
+					bucket.acquire( 2500 );
+				} catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		long start = System.currentTimeMillis();
+		other.start();
+		bucket.acquire( 2500 );
+		other.join();
+		long millis = System.currentTimeMillis() - start;
+		assertTrue( millis+" ms", millis >= 400 && millis < 2000 );
+	}
+
+	@Test
+	public void rateCanBeRemoved() throws Exception {
+		TokenBucket bucket = new TokenBucket( 1000 );
+		bucket.setRate( 0 );
+		assertTrue( bucket.isUnlimited() );
+		long start = System.currentTimeMillis();
+		bucket.acquire( 100000 );
+		assertTrue( System.currentTimeMillis() - start < 100 );
+	}
+
+	@Test
+	public void serversHaveSharedBuckets() {
+		TokenBucket a = TokenBucket.forTarget( "https://wso2-a:9443/services/", 1000 );
+		assertSame( a, TokenBucket.forTarget( "https://wso2-a:9443/services/", 0 ) );
+		assertTrue( a.isUnlimited() );
+		assertNotSame( a, TokenBucket.forTarget( "https://wso2-b:9443/services/", 1000 ) );
+	}
+
+}
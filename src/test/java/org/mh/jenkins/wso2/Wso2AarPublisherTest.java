@@ -0,0 +1,69 @@
+package org.mh.jenkins.wso2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import hudson.model.BuildListener;
+import hudson.util.StreamBuildListener;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+
+/**
+ * Server list parameter and rolling deploy waves.
+ *
+ * @author mh
+ *
+ */
+public class Wso2AarPublisherTest {
+
+	private static final List<String> SERVERS = Arrays.asList( "https://a/", "https://b/", "https://c/", "https://d/", "https://e/" );
+
+	private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+	private final BuildListener listener = new StreamBuildListener( log );
+
+	@Test
+	public void serverUrlsAreSplitAndEndWithSlash() {
+		assertEquals( Arrays.asList( "https://a:9443/services/", "https://b:9443/services/", "https://c:9443/services/" ),
+				Wso2AarPublisher.serverUrls( " https://a:9443/services/, https://b:9443/services\n\thttps://c:9443/services/ " ) );
+	}
+
+	@Test
+	public void singleServerUrl() {
+		assertEquals( Collections.singletonList( "https://a:9443/services/" ), Wso2AarPublisher.serverUrls( "https://a:9443/services" ) );
+	}
+
+	@Test
+	public void canaryThenWavesOfTheConfiguredSize() {
+		assertEquals( Arrays.asList( Arrays.asList( "https://a/" ), Arrays.asList( "https://b/", "https://c/" ),
+				Arrays.asList( "https://d/", "https://e/" ) ),
+				Wso2AarPublisher.waves( SERVERS, "2", listener ) );
+		assertEquals( Arrays.asList( Arrays.asList( "https://a/" ), Arrays.asList( "https://b/", "https://c/", "https://d/" ),
+				Arrays.asList( "https://e/" ) ),
+				Wso2AarPublisher.waves( SERVERS, "3", listener ) );
+	}
+
+	@Test
+	public void defaultWaveIsOneServer() {
+		assertEquals( 5, Wso2AarPublisher.waves( SERVERS, "", listener ).size() );
+		assertEquals( 5, Wso2AarPublisher.waves( SERVERS, "0", listener ).size() );
+	}
+
+	@Test
+	public void invalidWaveSizeIsLogged() {
+		assertEquals( 5, Wso2AarPublisher.waves( SERVERS, "two", listener ).size() );
+		assertTrue( log.toString().contains( "Invalid wave size" ) );
+	}
+
+	@Test
+	public void singleServerIsTheCanary() {
+		assertEquals( Collections.singletonList( Collections.singletonList( "https://a/" ) ),
+				Wso2AarPublisher.waves( SERVERS.subList( 0, 1 ), "2", listener ) );
+	}
+
+}
@@ -0,0 +1,59 @@
+package org.mh.jenkins.wso2;
+
+import static org.junit.Assert.assertEquals;
+
+import hudson.model.Result;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+
+/**
+ * Build result of a deployment from the server results and the quorum.
+ *
+ * @author mh
+ *
+ */
+public class Wso2ClusterDeployerTest {
+
+	@Test
+	public void allServersDeployed() {
+		assertEquals( Result.SUCCESS, Wso2ClusterDeployer.buildResult( results( true, true, true ), 0, 0 ) );
+	}
+
+	@Test
+	public void failedServerFailsWithoutQuorum() {
+		assertEquals( Result.FAILURE, Wso2ClusterDeployer.buildResult( results( true, false, true ), 0, 0 ) );
+	}
+
+	@Test
+	public void quorumMakesItUnstable() {
+		assertEquals( Result.UNSTABLE, Wso2ClusterDeployer.buildResult( results( true, false, true ), 0, 2 ) );
+		assertEquals( Result.FAILURE, Wso2ClusterDeployer.buildResult( results( true, false, false ), 0, 2 ) );
+	}
+
+	@Test
+	public void upToDateServersCount() {
+		assertEquals( Result.SUCCESS, Wso2ClusterDeployer.buildResult( results( true ), 2, 0 ) );
+		assertEquals( Result.UNSTABLE, Wso2ClusterDeployer.buildResult( results( false ), 2, 2 ) );
+		assertEquals( Result.FAILURE, Wso2ClusterDeployer.buildResult( results( false ), 2, 3 ) );
+	}
+
+	@Test
+	public void nothingToDeploy() {
+		assertEquals( Result.SUCCESS, Wso2ClusterDeployer.buildResult( Collections.<Wso2ClusterDeployer.NodeResult>emptyList(), 3, 0 ) );
+	}
+
+	private static List<Wso2ClusterDeployer.NodeResult> results( boolean... success ) {
+		Wso2ClusterDeployer.NodeResult[] results = new Wso2ClusterDeployer.NodeResult[success.length];
+		for ( int i = 0; i < success.length; i++ ) {
+			results[i] = new Wso2ClusterDeployer.NodeResult( "https://wso2-"+i+":9443/services/", success[i], 10,
+					success[i] ? "deployed" : "failed" );
+		}
+		return Arrays.asList( results );
+	}
+
+}
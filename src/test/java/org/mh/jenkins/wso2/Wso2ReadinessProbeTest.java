@@ -0,0 +1,89 @@
+package org.mh.jenkins.wso2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * Readiness of a redeployed service: the old deployment answering HTTP 200 is not ready.
+ *
+ * @author mh
+ *
+ */
+public class Wso2ReadinessProbeTest {
+
+	private static final long TIMEOUT = 1500;
+	private static final long INTERVAL = 100;
+
+	private HttpServer server;
+	private URL url;
+	private volatile int status = 200;
+	private volatile String wsdl = "<definitions name=\"v1\"/>";
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+		server.createContext( "/services/Echo", new HttpHandler() {
+			public void handle( HttpExchange exchange ) throws IOException {
+				byte[] body = wsdl.getBytes( "UTF-8" );
+				exchange.sendResponseHeaders( status, body.length );
+				OutputStream out = exchange.getResponseBody();
+				out.write( body );
+				out.close();
+			}
+		});
+		server.start();
+		url = new URL( "http://localhost:"+server.getAddress().getPort()+"/services/Echo?wsdl" );
+	}
+
+	@After
+	public void tearDown() {
+		server.stop( 0 );
+	}
+
+	@Test
+	public void oldDeploymentAnsweringIsNotReady() throws Exception {
+		Wso2ReadinessProbe probe = Wso2ReadinessProbe.start( Wso2ReadinessProbe.baseline( url ), TIMEOUT, INTERVAL );
+		assertEquals( -1, probe.await() );
+		assertTrue( probe.getLastStatus(), probe.getLastStatus().contains( "old deployment" ) );
+	}
+
+	@Test
+	public void changedWsdlIsReady() throws Exception {
+		Wso2ReadinessProbe.Baseline baseline = Wso2ReadinessProbe.baseline( url );
+		wsdl = "<definitions name=\"v2\"/>";
+		assertTrue( Wso2ReadinessProbe.start( baseline, TIMEOUT, INTERVAL ).await() >= 0 );
+	}
+
+	@Test
+	public void serviceDownAndBackIsReady() throws Exception {
+		Wso2ReadinessProbe.Baseline baseline = Wso2ReadinessProbe.baseline( url );
+		status = 500;
+		Wso2ReadinessProbe probe = Wso2ReadinessProbe.start( baseline, TIMEOUT, INTERVAL );
+		Thread.sleep( 3 * INTERVAL );
+		status = 200; // same WSDL, but redeployed
+		assertTrue( probe.await() >= 0 );
+	}
+
+	@Test
+	public void firstDeploymentIsReady() throws Exception {
+		status = 404;
+		Wso2ReadinessProbe.Baseline baseline = Wso2ReadinessProbe.baseline( url );
+		status = 200;
+		assertTrue( Wso2ReadinessProbe.start( baseline, TIMEOUT, INTERVAL ).await() >= 0 );
+	}
+
+}
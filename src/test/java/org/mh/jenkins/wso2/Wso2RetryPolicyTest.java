@@ -0,0 +1,91 @@
+package org.mh.jenkins.wso2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+
+import javax.xml.ws.WebServiceException;
+
+import org.apache.cxf.transport.http.HTTPException;
+import org.junit.Test;
+import org.wso2.carbon.aarservices.Exception_Exception;
+
+
+/**
+ * Classification of upload errors and the backoff of the retries.
+ *
+ * @author mh
+ *
+ */
+public class Wso2RetryPolicyTest {
+
+	@Test
+	public void transportErrorsAreRetryable() {
+		assertTrue( Wso2RetryPolicy.isRetryable( new SocketTimeoutException( "Read timed out" ) ) );
+		assertTrue( Wso2RetryPolicy.isRetryable( new ConnectException( "Connection refused" ) ) );
+		assertTrue( Wso2RetryPolicy.isRetryable( new SocketException( "Connection reset" ) ) );
+		assertTrue( Wso2RetryPolicy.isRetryable( new IOException( "Unexpected end of file from server" ) ) );
+	}
+
+	@Test
+	public void wrappedTransportErrorsAreRetryable() {
+		assertTrue( Wso2RetryPolicy.isRetryable( new WebServiceException( "Could not send Message.",
+				new SocketTimeoutException( "Read timed out" ) ) ) );
+	}
+
+	@Test
+	public void gatewayErrorsAreRetryable() throws Exception {
+		URL url = new URL( "https://wso2:9443/services/" );
+		assertTrue( Wso2RetryPolicy.isRetryable( new WebServiceException( new HTTPException( 503, "Service Unavailable", url ) ) ) );
+		assertTrue( Wso2RetryPolicy.isRetryable( new HTTPException( 502, "Bad Gateway", url ) ) );
+		assertFalse( Wso2RetryPolicy.isRetryable( new HTTPException( 401, "Unauthorized", url ) ) );
+		assertFalse( Wso2RetryPolicy.isRetryable( new HTTPException( 500, "Internal Server Error", url ) ) );
+	}
+
+	@Test
+	public void serverFaultsAreFatal() {
+		assertFalse( Wso2RetryPolicy.isRetryable( new Exception_Exception( "AAR deployment failed" ) ) );
+		assertFalse( Wso2RetryPolicy.isRetryable( new FileNotFoundException( "echo.aar" ) ) );
+		assertFalse( Wso2RetryPolicy.isRetryable( new WebServiceException( new UnknownHostException( "wso2" ) ) ) );
+		assertFalse( Wso2RetryPolicy.isRetryable( new IllegalStateException( "bug" ) ) );
+	}
+
+	@Test
+	public void backoffDoubles() {
+		Wso2RetryPolicy policy = new Wso2RetryPolicy( 5, 1000, 0 );
+		assertEquals( 1000, policy.backoff( 1 ) );
+		assertEquals( 2000, policy.backoff( 2 ) );
+		assertEquals( 4000, policy.backoff( 3 ) );
+	}
+
+	@Test
+	public void backoffIsCapped() {
+		Wso2RetryPolicy policy = new Wso2RetryPolicy( 50, 1000, 0 );
+		assertEquals( 5 * 60 * 1000L, policy.backoff( 40 ) );
+	}
+
+	@Test
+	public void jitterStaysInRange() {
+		Wso2RetryPolicy policy = new Wso2RetryPolicy( 3, 1000, 20 );
+		for ( int i = 0; i < 1000; i++ ) {
+			long wait = policy.backoff( 1 );
+			assertTrue( String.valueOf( wait ), wait >= 800 && wait <= 1200 );
+		}
+	}
+
+	@Test
+	public void atLeastOneAttempt() {
+		assertEquals( 1, new Wso2RetryPolicy( 0, 1000, 0 ).getAttempts() );
+		assertEquals( 1, Wso2RetryPolicy.NONE.getAttempts() );
+		assertEquals( 0, Wso2RetryPolicy.NONE.backoff( 1 ) );
+	}
+
+}
@@ -0,0 +1,162 @@
+package org.mh.jenkins.wso2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Per server upload slots and the supersede logic of queued uploads.
+ *
+ * @author mh
+ *
+ */
+public class Wso2ServerSchedulerTest {
+
+	private static int servers;
+
+	private String url;
+	private final List<String> started = Collections.synchronizedList( new ArrayList<String>() );
+
+	@Before
+	public void setUp() {
+		// the scheduler is JVM wide, each test uses its own server
+		url = "https://wso2-"+( ++servers )+":9443/services/";
+		Wso2ServerScheduler.configure( 1 );
+	}
+
+	@After
+	public void tearDown() {
+		Wso2ServerScheduler.configure( 2 );
+	}
+
+	@Test
+	public void uploadsWaitForASlot() {
+		Wso2ServerScheduler.Ticket a = enqueue( "a", "echo.aar" );
+		enqueue( "b", "ping.aar" );
+		assertEquals( Arrays.asList( "a" ), started );
+		assertEquals( 1, Wso2ServerScheduler.queued( url ) );
+
+		a.release( true );
+		assertEquals( Arrays.asList( "a", "b" ), started );
+		assertEquals( 0, Wso2ServerScheduler.queued( url ) );
+	}
+
+	@Test
+	public void serversHaveTheirOwnSlots() {
+		enqueue( "a", "echo.aar" );
+		Wso2ServerScheduler.enqueue( url+"other/", "echo.aar", new RecordingStart( "b" ) );
+		assertEquals( Arrays.asList( "a", "b" ), started );
+	}
+
+	@Test
+	public void olderUploadIsSuperseded() {
+		Wso2ServerScheduler.Ticket running = enqueue( "running", "ping.aar" );
+		Wso2ServerScheduler.Ticket older = enqueue( "older", "echo.aar" );
+		Wso2ServerScheduler.Ticket newer = enqueue( "newer", "echo.aar" );
+
+		running.release( true );
+		assertEquals( Arrays.asList( "running", "newer" ), started );
+		assertTrue( older.isSuperseded() );
+		assertFalse( newer.isSuperseded() );
+
+		// the superseded upload gets the outcome of the newer one
+		newer.release( false );
+		assertEquals( Arrays.asList( "running", "newer", "older" ), started );
+		assertFalse( older.isNewerSuccess() );
+	}
+
+	@Test
+	public void supersededUploadGetsSuccess() {
+		Wso2ServerScheduler.Ticket running = enqueue( "running", "ping.aar" );
+		Wso2ServerScheduler.Ticket oldest = enqueue( "oldest", "echo.aar" );
+		Wso2ServerScheduler.Ticket older = enqueue( "older", "echo.aar" );
+		Wso2ServerScheduler.Ticket newest = enqueue( "newest", "echo.aar" );
+
+		running.release( true );
+		assertTrue( oldest.isSuperseded() );
+		assertTrue( older.isSuperseded() );
+		newest.release( true );
+		assertEquals( Arrays.asList( "running", "newest", "oldest", "older" ), started );
+		assertTrue( oldest.isNewerSuccess() );
+		assertTrue( older.isNewerSuccess() );
+	}
+
+	@Test
+	public void runningUploadIsNotSuperseded() {
+		Wso2ServerScheduler.Ticket running = enqueue( "running", "echo.aar" );
+		enqueue( "newer", "echo.aar" );
+		assertFalse( running.isSuperseded() );
+		running.release( true );
+		assertEquals( Arrays.asList( "running", "newer" ), started );
+	}
+
+	@Test
+	public void cancelledUploadLeavesTheQueue() {
+		Wso2ServerScheduler.Ticket running = enqueue( "running", "ping.aar" );
+		Wso2ServerScheduler.Ticket waiting = enqueue( "waiting", "echo.aar" );
+		waiting.cancel();
+		assertEquals( 0, Wso2ServerScheduler.queued( url ) );
+		running.release( true );
+		assertEquals( Arrays.asList( "running" ), started );
+	}
+
+	@Test
+	public void cancelledUploadFailsItsSupersededUploads() {
+		Wso2ServerScheduler.Ticket running = enqueue( "running", "ping.aar" );
+		Wso2ServerScheduler.Ticket older = enqueue( "older", "echo.aar" );
+		Wso2ServerScheduler.Ticket newer = enqueue( "newer", "echo.aar" );
+		running.release( true );
+		newer.cancel();
+		assertEquals( Arrays.asList( "running", "newer", "older" ), started );
+		assertFalse( older.isNewerSuccess() );
+	}
+
+	@Test
+	public void raisedLimitStartsWaitingUploads() {
+		enqueue( "a", "echo.aar" );
+		enqueue( "b", "ping.aar" );
+		Wso2ServerScheduler.configure( 2 );
+		assertEquals( Arrays.asList( "a", "b" ), started );
+	}
+
+	@Test
+	public void loweredLimitKeepsRunningUploads() {
+		Wso2ServerScheduler.configure( 2 );
+		Wso2ServerScheduler.Ticket a = enqueue( "a", "echo.aar" );
+		enqueue( "b", "ping.aar" );
+		enqueue( "c", "other.aar" );
+		Wso2ServerScheduler.configure( 1 );
+		a.release( true );
+		// b still holds its slot, so c waits
+		assertEquals( Arrays.asList( "a", "b" ), started );
+		assertEquals( 1, Wso2ServerScheduler.queued( url ) );
+	}
+
+	private Wso2ServerScheduler.Ticket enqueue( String name, String key ) {
+		return Wso2ServerScheduler.enqueue( url, key, new RecordingStart( name ) );
+	}
+
+	/** Records the start order */
+	private class RecordingStart implements Wso2ServerScheduler.Start {
+		private final String name;
+
+		RecordingStart( String name ) {
+			this.name = name;
+		}
+
+		public void start( Wso2ServerScheduler.Ticket ticket ) {
+			started.add( name );
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+package org.mh.jenkins.wso2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+
+/**
+ * Builds AARs and nested jars for the tests.
+ *
+ * @author mh
+ *
+ */
+final class ZipBuilder {
+
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private final ZipOutputStream zip = new ZipOutputStream( bytes );
+	private long time = 1000000000000L;
+
+	/** Timestamp of the following entries */
+	ZipBuilder time( long millis ) {
+		this.time = millis;
+		return this;
+	}
+
+	ZipBuilder add( String name, String content ) throws IOException {
+		return add( name, content.getBytes( "UTF-8" ) );
+	}
+
+	ZipBuilder add( String name, byte[] content ) throws IOException {
+		ZipEntry entry = new ZipEntry( name );
+		entry.setTime( time );
+		zip.putNextEntry( entry );
+		zip.write( content );
+		zip.closeEntry();
+		return this;
+	}
+
+	byte[] toBytes() throws IOException {
+		zip.close();
+		return bytes.toByteArray();
+	}
+
+	File writeTo( File file ) throws IOException {
+		OutputStream out = new FileOutputStream( file );
+		try {
+			out.write( toBytes() );
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+}